@@ -66,8 +66,9 @@ public class MainActivity extends AppCompatActivity {
             config.manifestPath = manifestFile.getAbsolutePath();
             config.resDir = resDir.getAbsolutePath();
 
-            ApkBuilder builder = new ApkBuilder(this, output.getPrintStream(), config);
-            builder.build();
+            try (ApkBuilder builder = new ApkBuilder(this, output.getPrintStream(), config)) {
+                builder.build();
+            }
 
         } catch (Exception e) {
             e.printStackTrace(output.getPrintStream());
@@ -1,5 +1,6 @@
 package org.xedox.apkbuilder;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.res.AssetManager;
 import java.io.File;
@@ -10,32 +11,54 @@ import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import org.xedox.apkbuilder.task.AlignTask;
+import org.xedox.apkbuilder.task.CheckSyntaxTask;
 import org.xedox.apkbuilder.task.CleanTask;
 import org.xedox.apkbuilder.task.CompileResourcesTask;
 import org.xedox.apkbuilder.task.LinkResourcesTask;
 import org.xedox.apkbuilder.task.CompileSourcesTask;
 import org.xedox.apkbuilder.task.DexingClassesTask;
 import org.xedox.apkbuilder.task.OptimizeTask;
+import org.xedox.apkbuilder.task.PackageDexTask;
 import org.xedox.apkbuilder.task.PackageResourcesTask;
 import org.xedox.apkbuilder.task.SignTask;
+import org.xedox.apkbuilder.util.Aapt2DaemonPool;
+import org.xedox.apkbuilder.util.Aapt2Diagnostic;
 import org.xedox.apkbuilder.util.BinaryUtils;
+import org.xedox.apkbuilder.util.BuildCache;
+import org.xedox.apkbuilder.util.BuildJournal;
+import org.xedox.apkbuilder.util.CompiledClasses;
+import org.xedox.apkbuilder.util.DexFiles;
+import org.xedox.apkbuilder.util.ProcessRunner;
+import org.xedox.apkbuilder.util.TaskGraph;
 import org.xedox.apkbuilder.util.TaskManager;
 import org.xedox.apkbuilder.util.BuildException;
+import org.xedox.javac.CompilerSession;
 import org.xedox.javac.JavacOptionsBuilder;
+import org.xedox.javac.OptionsBuilder;
 
-public class ApkBuilder {
+public class ApkBuilder implements AutoCloseable {
     public final TaskManager taskManager;
     public final BuildConfig config;
+    public final BuildJournal journal;
+    public BuildCache buildCache;
     public boolean debugCommands;
     public File aapt2Binary;
+    public Aapt2DaemonPool aapt2Daemons;
     public File compiledResDir;
     public File genDir;
     public File outputApk;
     public File classesDir;
     public File dexDir;
+    public final CompiledClasses compiledClasses;
+    public final DexFiles dexFiles;
+    // Shared so android.jar stays open across builds in the same process.
+    public CompilerSession compilerSession = CompilerSession.shared();
     public Context context;
     public static final Object keyCopyLock = new Object();
+    // Rough peak RSS of an aapt2 process crunching large PNGs.
+    private static final long AAPT2_WORKER_MEMORY = 256L * 1024 * 1024;
 
     public ApkBuilder(Context context, BuildConfig config) {
         this(context, System.out, config);
@@ -47,6 +70,9 @@ public class ApkBuilder {
         this.config = config != null ? config : new BuildConfig();
         String nativeDir = context.getApplicationInfo().nativeLibraryDir;
         aapt2Binary = new File(nativeDir, "libaapt2.so");
+        if (config.aapt2DaemonEnable) {
+            aapt2Daemons = new Aapt2DaemonPool(aapt2Binary, getAapt2Workers());
+        }
         debugCommands = config.debugMode;
         taskManager.setVerbose(config.debugMode);
 
@@ -55,30 +81,146 @@ public class ApkBuilder {
         this.outputApk = new File(genDir, "resources.ap_");
         this.classesDir = new File(config.buildPath, "classes");
         this.dexDir = new File(config.buildPath, "dex");
+        this.compiledClasses =
+                new CompiledClasses(classesDir, new File(classesDir, CompileSourcesTask.STATE_FILE));
+        this.dexFiles = new DexFiles(dexDir);
+        this.journal = new BuildJournal(new File(config.buildPath, "build-journal.properties"));
+        if (config.buildCacheEnable) {
+            File cacheDir =
+                    config.buildCacheDir != null
+                            ? new File(config.buildCacheDir)
+                            : new File(context.getCacheDir(), "tarko-cache");
+            this.buildCache = new BuildCache(cacheDir, config.buildCacheMaxSize * 1024L * 1024L);
+        }
     }
 
     public void build() {
+        TaskGraph graph = createTaskGraph();
         try {
             validateBuildEnvironment();
             taskManager.task(
                     "Building APK",
                     () -> {
                         taskManager.start();
-                        taskManager.task("Cleaning build directory...", new CleanTask(this));
-                        taskManager.task("Compiling resources...", new CompileResourcesTask(this));
-                        taskManager.task("Linking resources...", new LinkResourcesTask(this));
-                        taskManager.task("Compiling sources...", new CompileSourcesTask(this));
-                        taskManager.task("Dexing classes...", new DexingClassesTask(this));
-                        taskManager.task("Packing resources...", new PackageResourcesTask(this));
-                        taskManager.task("Optimize apk...", new OptimizeTask(this));
-                        taskManager.task("Aligning apk...", new AlignTask(this));
-                        taskManager.task("Apk signing...", new SignTask(this));
+                        journal.load();
+                        graph.setJournal(journal);
+                        graph.setCache(buildCache);
+                        graph.execute(config.maxWorkers);
                     });
         } catch (Exception err) {
             err.printStackTrace(taskManager.getPrintStream());
+        } finally {
+            // Packaging has consumed them; an ApkBuilder kept around by the IDE should not hold
+            // every class and dex file of the project between builds.
+            compiledClasses.releaseBytes();
+            dexFiles.release();
         }
 
         taskManager.printStatistics();
+        graph.printCriticalPath();
+    }
+
+    public int getAapt2Workers() {
+        if (config.aapt2Workers > 0) return config.aapt2Workers;
+
+        int workers = Runtime.getRuntime().availableProcessors();
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am != null) {
+            ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+            am.getMemoryInfo(memoryInfo);
+            long available = memoryInfo.availMem - memoryInfo.threshold;
+            workers = (int) Math.min(workers, available / AAPT2_WORKER_MEMORY);
+        }
+        return Math.max(1, workers);
+    }
+
+    public List<Aapt2Diagnostic> runAapt2(OptionsBuilder options) throws Exception {
+        if (debugCommands) {
+            taskManager.debug("Using options: aapt2 " + options.buildCmd());
+        }
+        long timeoutMillis = config.aapt2Timeout * 1000L;
+        ProcessRunner.Result result;
+        if (aapt2Daemons != null) {
+            result = aapt2Daemons.execute(timeoutMillis, options.build());
+        } else {
+            List<String> command = new ArrayList<>();
+            command.add(aapt2Binary.getAbsolutePath());
+            command.addAll(options.getArgs());
+            result =
+                    new ProcessRunner(command.toArray(new String[0]))
+                            .timeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                            .run();
+        }
+
+        String name = "aapt2 " + options.getArgs().get(0);
+        if (result.cpuTimeMillis >= 0) {
+            taskManager.debug(
+                    name
+                            + " took "
+                            + result.durationMillis
+                            + "ms ("
+                            + result.cpuTimeMillis
+                            + "ms CPU)");
+        }
+        if (result.timedOut) {
+            throw new BuildException(name + " timed out after " + config.aapt2Timeout + "s");
+        }
+
+        List<Aapt2Diagnostic> diagnostics = result.getDiagnostics();
+        StringBuilder errors = new StringBuilder();
+        for (Aapt2Diagnostic diagnostic : diagnostics) {
+            switch (diagnostic.severity) {
+                case ERROR:
+                    errors.append(diagnostic).append("\n");
+                    break;
+                case WARNING:
+                    taskManager.warn(diagnostic.toString());
+                    break;
+                default:
+                    taskManager.debug(diagnostic.toString());
+            }
+        }
+        if (!result.isSuccess()) {
+            throw new BuildException(
+                    name + " failed:\n" + (errors.length() > 0 ? errors : result.getOutput()));
+        }
+        return diagnostics;
+    }
+
+    @Override
+    public void close() {
+        if (aapt2Daemons != null) {
+            aapt2Daemons.close();
+        }
+    }
+
+    public void clean() {
+        try {
+            taskManager.task("Cleaning build directory...", new CleanTask(this));
+        } catch (Exception err) {
+            err.printStackTrace(taskManager.getPrintStream());
+        }
+    }
+
+    public TaskGraph createTaskGraph() {
+        TaskGraph graph = new TaskGraph(taskManager);
+        if (config.cleanBuild) {
+            graph.add("Cleaning build directory...", new CleanTask(this));
+        }
+        if (config.javacSyntaxCheck) {
+            // Needs nothing from the other tasks, so it runs while resources compile.
+            graph.add("Checking syntax...", new CheckSyntaxTask(this));
+        }
+        graph.add("Compiling resources...", new CompileResourcesTask(this));
+        graph.add("Linking resources...", new LinkResourcesTask(this));
+        graph.add("Compiling sources...", new CompileSourcesTask(this));
+        graph.add("Dexing classes...", new DexingClassesTask(this));
+        graph.add("Packing resources...", new PackageResourcesTask(this));
+        graph.add("Packing dex files...", new PackageDexTask(this));
+        graph.add("Optimize apk...", new OptimizeTask(this));
+        graph.add("Aligning apk...", new AlignTask(this));
+        graph.add("Apk signing...", new SignTask(this));
+        return graph;
     }
 
     private void validateBuildEnvironment() throws Exception {
@@ -138,13 +280,28 @@ public class ApkBuilder {
         public String assetsDir;
         public String nativeLibsDir;
         public String desugarJdkLibsPath;
+        public String desugarJdkLibsConfigPath;
         public String proguardRulesPath;
 
         public boolean debugMode = true;
+        public boolean cleanBuild = false;
         public boolean r8enabled = false;
+        public boolean dexArchiveEnable = true;
+        public int dexWorkers = 0;
         public boolean apkAlignEnable = true;
         public boolean apkSignEnable = true;
         public boolean aapt2OptimizeEnable = true;
+        public boolean aapt2DaemonEnable = true;
+        public int aapt2Workers = 0;
+        public int aapt2Timeout = 600;
+        public int javacWorkers = 0;
+        public int javacMaxErrors = 100;
+        public boolean javacWarnings = true;
+        public boolean javacSyntaxCheck = false;
+        public int maxWorkers = Runtime.getRuntime().availableProcessors();
+        public boolean buildCacheEnable = true;
+        public String buildCacheDir;
+        public long buildCacheMaxSize = 512;
 
         public final JavacOptionsBuilder java = JavacOptionsBuilder.create();
         public final List<String> javaSources = new ArrayList<>();
@@ -3,10 +3,13 @@ package org.xedox.apkbuilder.task;
 import io.github.muntashirakon.zipalign.ZipAlign;
 import org.xedox.apkbuilder.ApkBuilder;
 import java.io.File;
+import java.util.Arrays;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import org.xedox.apkbuilder.util.BuildException;
 import org.xedox.apkbuilder.util.TaskManager;
+import java.util.List;
+import org.xedox.apkbuilder.util.TaskGraph;
 
 public class AlignTask implements TaskManager.Task {
     private final ApkBuilder builder;
@@ -15,6 +18,21 @@ public class AlignTask implements TaskManager.Task {
         this.builder = builder;
     }
 
+    @Override
+    public List<File> getInputs() {
+        return TaskGraph.files(new File(builder.config.buildPath, "base.apk"));
+    }
+
+    @Override
+    public List<File> getOutputs() {
+        return getInputs();
+    }
+
+    @Override
+    public List<String> getInputProperties() {
+        return Arrays.asList(String.valueOf(builder.config.apkAlignEnable));
+    }
+
     @Override
     public void run() throws Exception {
         if (!builder.config.apkAlignEnable) {
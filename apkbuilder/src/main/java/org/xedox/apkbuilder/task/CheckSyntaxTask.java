@@ -0,0 +1,48 @@
+package org.xedox.apkbuilder.task;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import org.xedox.apkbuilder.ApkBuilder;
+import org.xedox.apkbuilder.util.BuildException;
+import org.xedox.apkbuilder.util.TaskGraph;
+import org.xedox.apkbuilder.util.TaskManager;
+import org.xedox.javac.JavaCompiler;
+
+/**
+ * Parses the Java sources before anything else needs them, so syntax errors fail the build while
+ * resources are still compiling. R.java does not exist yet and is left to the real compile.
+ */
+public class CheckSyntaxTask implements TaskManager.Task {
+    private final ApkBuilder builder;
+
+    public CheckSyntaxTask(ApkBuilder builder) {
+        this.builder = builder;
+    }
+
+    @Override
+    public List<File> getInputs() {
+        return TaskGraph.files(builder.config.javaSources);
+    }
+
+    @Override
+    public List<String> getInputProperties() {
+        return Arrays.asList(builder.config.javaVersion, JavaCompiler.VERSION);
+    }
+
+    @Override
+    public void run() throws Exception {
+        PrintWriter writer = new PrintWriter(builder.taskManager.getPrintStream());
+        JavaCompiler javac = new JavaCompiler(writer, writer);
+        javac.setWorkers(builder.config.javacWorkers);
+        javac.setMaxErrors(builder.config.javacMaxErrors);
+        // Warnings come from the real compile; reporting them here would show them twice.
+        javac.setReportWarnings(false);
+        javac.setDiagnosticListener(
+                diagnostic -> CompileSourcesTask.log(builder.taskManager, diagnostic));
+        if (!javac.checkSyntax(builder.config.javaSources, builder.config.javaVersion)) {
+            throw new BuildException("Java sources have syntax errors");
+        }
+    }
+}
@@ -8,6 +8,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Comparator;
 import java.util.stream.Stream;
+import java.util.List;
+import org.xedox.apkbuilder.util.TaskGraph;
 
 public class CleanTask implements TaskManager.Task {
 
@@ -17,9 +19,15 @@ public class CleanTask implements TaskManager.Task {
         this.builder = builder;
     }
 
+    @Override
+    public List<File> getOutputs() {
+        return TaskGraph.files(builder.config.buildPath);
+    }
+
     @Override
     public void run() throws Exception {
         File buildDir = new File(builder.config.buildPath);
+        builder.journal.clear();
 
         if (!buildDir.exists()) {
             return;
@@ -29,7 +37,19 @@ public class CleanTask implements TaskManager.Task {
         Files.createDirectories(buildDir.toPath());
     }
 
-    private void deleteDirectory(File directory) throws BuildException {
+    public static void cleanDirectory(File directory) throws BuildException {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteDirectory(file);
+            } else if (!file.delete()) {
+                throw new BuildException("Failed to delete file: " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    private static void deleteDirectory(File directory) throws BuildException {
         File[] files = directory.listFiles();
         if (files != null) {
             for (File file : files) {
@@ -2,43 +2,240 @@ package org.xedox.apkbuilder.task;
 
 import org.xedox.apkbuilder.ApkBuilder;
 import org.xedox.javac.OptionsBuilder;
-import org.xedox.apkbuilder.util.BinaryUtils;
 import org.xedox.apkbuilder.util.TaskManager;
-import org.xedox.apkbuilder.util.BuildException;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.stream.Collectors;
-import net.lingala.zip4j.ZipFile;
-import net.lingala.zip4j.model.ZipParameters;
-import com.android.tools.r8.D8;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.xedox.apkbuilder.util.TaskGraph;
 
 public class CompileResourcesTask implements TaskManager.Task {
+    // Keeps one-shot aapt2 command lines well below the kernel argument limit.
+    private static final int MAX_FILES_PER_COMMAND = 500;
+    // Below this many files per worker the extra aapt2 processes cost more than they save.
+    private static final int MIN_FILES_PER_SHARD = 16;
+    private static final String SNAPSHOT_FILE = "res.snapshot";
+
     private final ApkBuilder builder;
 
     public CompileResourcesTask(ApkBuilder builder) {
         this.builder = builder;
     }
 
+    @Override
+    public List<File> getInputs() {
+        return TaskGraph.files(builder.config.resDir, builder.aapt2Binary);
+    }
+
+    @Override
+    public List<File> getOutputs() {
+        return TaskGraph.files(builder.compiledResDir);
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
     @Override
     public void run() throws Exception {
         builder.compiledResDir.mkdirs();
+        File snapshotFile = new File(builder.compiledResDir, SNAPSHOT_FILE);
+        Properties snapshot = loadSnapshot(snapshotFile);
+        if (snapshot.isEmpty()) {
+            // Without a snapshot we cannot tell which .flat files are stale.
+            CleanTask.cleanDirectory(builder.compiledResDir);
+        }
+
+        Map<String, File> resources = collectResources(new File(builder.config.resDir));
+        List<File> changed = new ArrayList<>();
+        Properties newSnapshot = new Properties();
+        for (Map.Entry<String, File> entry : resources.entrySet()) {
+            String fingerprint = fingerprint(entry.getValue());
+            newSnapshot.setProperty(entry.getKey(), fingerprint);
+            if (!fingerprint.equals(snapshot.getProperty(entry.getKey()))) {
+                changed.add(entry.getValue());
+            }
+        }
+
+        int removed = 0;
+        for (String path : snapshot.stringPropertyNames()) {
+            if (resources.containsKey(path)) continue;
+            File flat = new File(builder.compiledResDir, flatName(path));
+            if (flat.exists() && !flat.delete()) {
+                throw new IOException("Failed to delete stale " + flat.getAbsolutePath());
+            }
+            removed++;
+        }
+
+        builder.taskManager.debug(
+                "Resources: "
+                        + resources.size()
+                        + " total, "
+                        + changed.size()
+                        + " to compile, "
+                        + removed
+                        + " removed");
+
+        int workers =
+                Math.min(builder.getAapt2Workers(), changed.size() / MIN_FILES_PER_SHARD);
+        if (workers <= 1) {
+            compileShard(changed);
+        } else {
+            compileSharded(changed, workers);
+        }
+
+        saveSnapshot(snapshotFile, newSnapshot);
+    }
+
+    // Every resource compiles to its own .flat independently of the others, so the output is
+    // identical to a single aapt2 run no matter how files are spread across workers.
+    private void compileSharded(List<File> files, int workers) throws Exception {
+        List<List<File>> shards = split(files, workers);
+        builder.taskManager.debug(
+                "Compiling " + files.size() + " resources in " + shards.size() + " shards");
+
+        ExecutorService executor = Executors.newFixedThreadPool(shards.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<File> shard : shards) {
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    compileShard(shard);
+                                    return null;
+                                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) throw (Exception) cause;
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Largest files first onto the currently lightest shard, so PNG-heavy shards do not straggle.
+    private static List<List<File>> split(List<File> files, int count) {
+        List<File> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparingLong(File::length).reversed());
+
+        List<List<File>> shards = new ArrayList<>();
+        long[] weights = new long[count];
+        for (int i = 0; i < count; i++) {
+            shards.add(new ArrayList<>());
+        }
+        for (File file : sorted) {
+            int lightest = 0;
+            for (int i = 1; i < count; i++) {
+                if (weights[i] < weights[lightest]) lightest = i;
+            }
+            shards.get(lightest).add(file);
+            weights[lightest] += Math.max(1, file.length());
+        }
+        return shards;
+    }
+
+    private void compileShard(List<File> files) throws Exception {
+        for (int start = 0; start < files.size(); start += MAX_FILES_PER_COMMAND) {
+            compile(files.subList(start, Math.min(files.size(), start + MAX_FILES_PER_COMMAND)));
+        }
+    }
+
+    private void compile(List<File> files) throws Exception {
         OptionsBuilder opt = new OptionsBuilder();
-        opt.arg(builder.aapt2Binary.getAbsolutePath());
         opt.arg("compile");
-        opt.arg("--dir", builder.config.resDir);
         opt.arg("-o", builder.compiledResDir.getAbsolutePath());
+        for (File file : files) {
+            opt.arg(file.getAbsolutePath());
+        }
+
+        builder.runAapt2(opt);
+    }
 
-        if (builder.debugCommands) {
-            builder.taskManager.debug("Using options: " + opt.buildCmd());
+    // aapt2 only accepts res/<type>[-<config>]/<file>, and skips hidden files like --dir does.
+    private static Map<String, File> collectResources(File resDir) {
+        Map<String, File> resources = new LinkedHashMap<>();
+        File[] typeDirs = resDir.listFiles(f -> f.isDirectory() && !f.getName().startsWith("."));
+        if (typeDirs == null) return resources;
+        Arrays.sort(typeDirs, Comparator.comparing(File::getName));
+
+        for (File typeDir : typeDirs) {
+            File[] files = typeDir.listFiles(f -> f.isFile() && !f.getName().startsWith("."));
+            if (files == null) continue;
+            Arrays.sort(files, Comparator.comparing(File::getName));
+            for (File file : files) {
+                resources.put(typeDir.getName() + "/" + file.getName(), file);
+            }
+        }
+        return resources;
+    }
+
+    // Mirrors aapt2's intermediate file naming: <type>[-<config>]_<name>.flat, with values XML
+    // compiled into an .arsc table.
+    static String flatName(String path) {
+        int split = path.indexOf('/');
+        String dir = path.substring(0, split);
+        String name = path.substring(split + 1);
+        if ((dir.equals("values") || dir.startsWith("values-")) && name.endsWith(".xml")) {
+            name = name.substring(0, name.length() - ".xml".length()) + ".arsc";
         }
+        return dir + "_" + name + ".flat";
+    }
 
-        String output = BinaryUtils.execute(opt.build());
-        if(output!= null && output.length() != 0) {
-            builder.taskManager.debug("aapt2 compile output: " + output);
+    private static String fingerprint(File file) {
+        return file.length() + ":" + file.lastModified();
+    }
+
+    private static Properties loadSnapshot(File file) {
+        Properties snapshot = new Properties();
+        if (!file.isFile()) return snapshot;
+        try (InputStream in = new FileInputStream(file)) {
+            snapshot.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            snapshot.clear();
+        }
+        return snapshot;
+    }
+
+    // The snapshot is a cached output of this task, so it is written without the date comment
+    // of Properties.store and with sorted keys to be byte-identical for identical resources.
+    private static void saveSnapshot(File file, Properties snapshot) throws IOException {
+        ByteArrayOutputStream escaped = new ByteArrayOutputStream();
+        snapshot.store(escaped, null);
+        List<String> lines = new ArrayList<>();
+        for (String line : escaped.toString("ISO-8859-1").split("\\R")) {
+            if (!line.isEmpty() && !line.startsWith("#")) lines.add(line);
+        }
+        Collections.sort(lines);
+        try (Writer out =
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.ISO_8859_1)) {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
         }
-        
     }
-}
\ No newline at end of file
+}
@@ -2,49 +2,115 @@ package org.xedox.apkbuilder.task;
 
 import org.xedox.apkbuilder.ApkBuilder;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import org.xedox.apkbuilder.util.BuildException;
 import java.io.PrintWriter;
 import org.xedox.apkbuilder.util.TaskManager;
+import org.xedox.javac.IncrementalCompiler;
 import org.xedox.javac.JavaCompiler;
+import org.xedox.javac.JavacDiagnostic;
 import org.xedox.javac.JavacOptionsBuilder;
+import java.util.List;
+import org.xedox.apkbuilder.util.TaskGraph;
 
 public class CompileSourcesTask implements TaskManager.Task {
+    // Kept inside classesDir so a cache restore brings back matching state and class files.
+    public static final String STATE_FILE = "javac-state.properties";
+
     private final ApkBuilder builder;
 
     public CompileSourcesTask(ApkBuilder builder) {
         this.builder = builder;
     }
 
+    @Override
+    public List<File> getInputs() {
+        return TaskGraph.files(
+                builder.config.javaSources, getRJavaFile(), builder.config.androidJarPath);
+    }
+
+    @Override
+    public List<File> getOutputs() {
+        return TaskGraph.files(builder.classesDir);
+    }
+
+    @Override
+    public List<String> getInputProperties() {
+        return Arrays.asList(builder.config.javaVersion, JavaCompiler.VERSION);
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
+    private File getRJavaFile() {
+        return new File(builder.genDir, builder.config.appPackage.replace('.', '/') + "/R.java");
+    }
+
     @Override
     public void run() throws Exception {
-        File rJavaFile = new File(builder.genDir, builder.config.appPackage.replace('.', '/') + "/R.java");
+        File rJavaFile = getRJavaFile();
         if (!rJavaFile.exists()) {
             throw new BuildException("R.java not found at: " + rJavaFile.getAbsolutePath());
         }
 
+        builder.classesDir.mkdirs();
+
         PrintWriter outWriter = new PrintWriter(builder.taskManager.getPrintStream());
         PrintWriter errWriter = new PrintWriter(builder.taskManager.getPrintStream());
         JavaCompiler javac = new JavaCompiler(outWriter, errWriter);
+        javac.setSession(builder.compilerSession);
+        javac.setWorkers(builder.config.javacWorkers);
+        javac.setMaxErrors(builder.config.javacMaxErrors);
+        javac.setReportWarnings(builder.config.javacWarnings);
+        javac.setDiagnosticListener(diagnostic -> log(builder.taskManager, diagnostic));
+        // Class files still go to classesDir, which the next incremental compile reads from.
+        builder.compiledClasses.dropIfStale();
+        javac.setClassConsumer(builder.compiledClasses::put);
 
+        // Sources are chosen by the incremental compiler, which also owns -d.
         JavacOptionsBuilder mainOptions =
                 JavacOptionsBuilder.create()
-                        .destination(builder.classesDir.getAbsolutePath())
                         .classpath(builder.config.androidJarPath)
                         .option("-proc:none")
                         .target(builder.config.javaVersion)
                         .source(builder.config.javaVersion);
 
-        for (String sourcePath : builder.config.javaSources) {
-            mainOptions.addSrc(sourcePath);
-        }
-        mainOptions.addSrc(rJavaFile.getAbsolutePath());
+        List<String> sourcePaths = new ArrayList<>(builder.config.javaSources);
+        sourcePaths.add(rJavaFile.getAbsolutePath());
 
         if (builder.debugCommands) {
             builder.taskManager.debug("Using options: " + mainOptions.buildCmd());
         }
 
-        if (!javac.compile(mainOptions.build())) {
+        File stateFile = new File(builder.classesDir, STATE_FILE);
+        IncrementalCompiler compiler =
+                new IncrementalCompiler(javac, builder.classesDir, stateFile);
+        boolean success = compiler.compile(sourcePaths, mainOptions);
+        builder.taskManager.debug(
+                (compiler.isFullBuild() ? "Full build: " : "Incremental build: ")
+                        + compiler.getCompiledSources().size()
+                        + " of "
+                        + compiler.getSourceCount()
+                        + " sources compiled in "
+                        + compiler.getRounds()
+                        + " rounds");
+        if (!success) {
+            builder.compiledClasses.clear();
             throw new BuildException("Main sources compilation failed");
         }
+        builder.compiledClasses.setTypes(IncrementalCompiler.readOutputTypes(stateFile));
+    }
+
+    static void log(TaskManager taskManager, JavacDiagnostic diagnostic) {
+        if (diagnostic.isError()) {
+            taskManager.error(diagnostic.toString());
+        } else if (diagnostic.severity == JavacDiagnostic.Severity.WARNING) {
+            taskManager.warn(diagnostic.toString());
+        } else {
+            taskManager.debug(diagnostic.toString());
+        }
     }
 }
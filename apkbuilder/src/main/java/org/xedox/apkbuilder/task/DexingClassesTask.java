@@ -1,139 +1,293 @@
 package org.xedox.apkbuilder.task;
 
 import org.xedox.apkbuilder.ApkBuilder;
+import org.xedox.apkbuilder.util.DexArchiveCache;
+import org.xedox.apkbuilder.util.DexFiles;
+import org.xedox.apkbuilder.util.JarIndexResourceProvider;
+import org.xedox.apkbuilder.util.LibraryDexCache;
+import org.xedox.apkbuilder.util.R8ResultCache;
 import org.xedox.apkbuilder.util.TaskManager;
-import org.xedox.javac.OptionsBuilder;
+import com.android.tools.r8.CompilationMode;
 import com.android.tools.r8.D8;
+import com.android.tools.r8.D8Command;
+import com.android.tools.r8.L8Command;
 import com.android.tools.r8.R8;
+import com.android.tools.r8.R8Command;
+import com.android.tools.r8.Version;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.origin.PathOrigin;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.nio.file.Files;
-import java.util.stream.Collectors;
-import java.io.ByteArrayOutputStream;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import org.xedox.apkbuilder.util.TaskGraph;
 
 public class DexingClassesTask implements TaskManager.Task {
+    private static final int MIN_API = 21;
+    private static final String MAPPING_FILE = "mapping.txt";
+
     private final ApkBuilder builder;
     private boolean fallbackToD8 = false;
+    private String desugaredLibraryJson;
 
     public DexingClassesTask(ApkBuilder builder) {
         this.builder = builder;
     }
 
+    @Override
+    public List<File> getInputs() {
+        return TaskGraph.files(
+                builder.classesDir,
+                builder.config.androidJarPath,
+                builder.config.desugarJdkLibsPath,
+                builder.config.desugarJdkLibsConfigPath,
+                builder.config.proguardRulesPath);
+    }
+
+    @Override
+    public List<File> getOutputs() {
+        return TaskGraph.files(
+                builder.dexDir, new File(builder.config.buildPath, MAPPING_FILE));
+    }
+
+    @Override
+    public List<String> getInputProperties() {
+        return Arrays.asList(String.valueOf(builder.config.r8enabled), Version.getVersionString());
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
     @Override
     public void run() throws Exception {
+        CleanTask.cleanDirectory(builder.dexDir);
         builder.dexDir.mkdirs();
-        Path classesDirPath = builder.classesDir.toPath();
         Path androidJar = Paths.get(builder.config.androidJarPath);
+        JarIndexResourceProvider androidJarIndex =
+                JarIndexResourceProvider.forJar(androidJar.toFile());
 
-        List<Path> classFiles =
-                Files.walk(classesDirPath)
-                        .filter(Files::isRegularFile)
-                        .filter(p -> p.toString().endsWith(".class"))
-                        .collect(Collectors.toList());
-
-        if (classFiles.isEmpty()) {
+        List<String> classes = builder.compiledClasses.getTypes();
+        if (classes.isEmpty()) {
             throw new IOException("No .class files found for dexing");
         }
 
+        File configuration = desugaredLibraryConfiguration();
+        desugaredLibraryJson =
+                configuration != null
+                        ? new String(
+                                Files.readAllBytes(configuration.toPath()), StandardCharsets.UTF_8)
+                        : null;
+
+        File mapping = new File(builder.config.buildPath, MAPPING_FILE);
         boolean useR8 = builder.config.r8enabled && !fallbackToD8;
         builder.taskManager.debug("Using " + (useR8 ? "R8" : "D8") + " for dexing...");
 
-        OptionsBuilder options =
-                new OptionsBuilder()
-                        .arg("--output", builder.dexDir.toString())
-                        .arg("--min-api", "21")
-                        .arg("--lib", androidJar.toString());
-
         if (useR8) {
             try {
-                options.arg("--release")
-                        .arg("--classpath", androidJar.toString())
-                        .arg("--no-desugaring");
-
-                if (builder.config.proguardRulesPath != null) {
-                    options.arg("--pg-conf", builder.config.proguardRulesPath);
-                }
-                File tempJar = createJar(classFiles, classesDirPath);
-                options.arg(tempJar.getAbsolutePath());
-
-                executeTool(options, true);
-
-                if (!hasDexFiles()) {
-                    throw new IOException("R8 failed to produce dex files");
-                }
+                builder.dexFiles.publish(runR8(classes, androidJar, androidJarIndex, mapping));
+                return;
             } catch (Exception e) {
                 builder.taskManager.error("R8 failed, falling back to D8: " + e.getMessage());
                 fallbackToD8 = true;
-                run();
             }
+        }
+        mapping.delete();
+
+        DexFiles.Consumer output = builder.dexFiles.newConsumer();
+        if (builder.config.dexArchiveEnable) {
+            DexArchiveCache archives =
+                    new DexArchiveCache(
+                            new File(builder.config.buildPath, "dex-archives"), archiveKey());
+            archives.setWorkers(builder.config.dexWorkers);
+            List<Path> dexFiles =
+                    archives.update(
+                            builder.compiledClasses,
+                            classes,
+                            () -> newD8Command(androidJar, androidJarIndex));
+            builder.taskManager.debug(
+                    "Dexed "
+                            + archives.getDexedClasses()
+                            + " of "
+                            + classes.size()
+                            + " classes in "
+                            + archives.getShards()
+                            + " shards");
+            // Merging dex files is cheap next to dexing class files.
+            D8.run(
+                    newD8Command(androidJar, androidJarIndex)
+                            .addProgramFiles(dexFiles)
+                            .setProgramConsumer(output)
+                            .build());
         } else {
-            if (builder.config.desugarJdkLibsPath != null) {
-                options.arg("--classpath", builder.config.desugarJdkLibsPath);
+            D8Command.Builder command =
+                    newD8Command(androidJar, androidJarIndex).setProgramConsumer(output);
+            for (String name : classes) {
+                command.addClassProgramData(builder.compiledClasses.getBytes(name), origin(name));
             }
 
-            classFiles.forEach(p -> options.arg(p.toString()));
+            D8.run(command.build());
+        }
 
-            executeTool(options, false);
+        if (configuration != null) {
+            File cacheDir = new File(builder.context.getCacheDir(), "tarko-library-dex");
+            LibraryDexCache libraries = new LibraryDexCache(cacheDir);
+            List<byte[]> library =
+                    libraries.getDesugaredLibrary(
+                            new File(builder.config.desugarJdkLibsPath),
+                            configuration,
+                            MIN_API,
+                            () -> newL8Command(androidJar, androidJarIndex));
+            for (byte[] dex : library) {
+                output.append(dex);
+            }
         }
+        builder.dexFiles.publish(output);
     }
 
-    private File createJar(List<Path> classFiles, Path baseDir) throws IOException {
-        File tempJar = File.createTempFile("classes", ".jar");
-        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(tempJar))) {
-            for (Path classFile : classFiles) {
-                String relativePath =
-                        baseDir.relativize(classFile)
-                                .toString()
-                                .replace('\\', '/')
-                                .replace(".class", "")
-                                .replace("/", ".");
-                if (!relativePath.startsWith("java.")
-                        && !relativePath.startsWith("javax.")
-                        && !relativePath.startsWith("android.")) {
-                    String entryName = baseDir.relativize(classFile).toString().replace('\\', '/');
-                    zos.putNextEntry(new ZipEntry(entryName));
-                    zos.write(Files.readAllBytes(classFile));
-                    zos.closeEntry();
-                }
+    // The last R8 output is reused as long as its key matches, which skips R8 for a rebuild
+    // whose classes came out of the compiler the same.
+    private DexFiles.Consumer runR8(
+            List<String> classes,
+            Path androidJar,
+            JarIndexResourceProvider androidJarIndex,
+            File mapping)
+            throws Exception {
+        List<String> program = new ArrayList<>();
+        for (String name : classes) {
+            if (name.startsWith("java/")
+                    || name.startsWith("javax/")
+                    || name.startsWith("android/")) {
+                continue;
             }
+            program.add(name);
         }
-        return tempJar;
-    }
+        String rules = builder.config.proguardRulesPath;
+        boolean hasRules = rules != null && !rules.isEmpty();
 
-    private void executeTool(OptionsBuilder options, boolean isR8) throws Exception {
-        String[] args = options.build();
-        builder.taskManager.debug("Using options: " + String.join(" ", args));
+        R8ResultCache cache = new R8ResultCache(new File(builder.config.buildPath, "r8-output"));
+        String key =
+                R8ResultCache.computeKey(
+                        Arrays.asList(Version.getVersionString(), String.valueOf(MIN_API)),
+                        TaskGraph.files(androidJar.toFile(), hasRules ? rules : null),
+                        builder.compiledClasses,
+                        program);
+        DexFiles.Consumer output = builder.dexFiles.newConsumer();
+        List<byte[]> cached = cache.get(key, mapping);
+        if (cached != null) {
+            builder.taskManager.debug("Program and keep rules are unchanged, reusing R8 output");
+            for (byte[] dex : cached) {
+                output.append(dex);
+            }
+            return output;
+        }
 
-        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        // Desugaring is off, so R8 output never refers to the desugared library.
+        R8Command.Builder command =
+                R8Command.builder()
+                        .setMode(CompilationMode.RELEASE)
+                        .setMinApiLevel(MIN_API)
+                        .setDisableDesugaring(true)
+                        .setProgramConsumer(output)
+                        .setProguardMapOutputPath(cache.getMappingOutput().toPath());
+        if (androidJarIndex != null) {
+            command.addLibraryResourceProvider(androidJarIndex)
+                    .addClasspathResourceProvider(androidJarIndex);
+        } else {
+            command.addLibraryFiles(androidJar).addClasspathFiles(androidJar);
+        }
 
-        PrintStream originalErr = System.err;
+        if (hasRules) {
+            command.addProguardConfigurationFiles(Paths.get(rules));
+        }
+        for (String name : program) {
+            command.addClassProgramData(builder.compiledClasses.getBytes(name), origin(name));
+        }
 
-        try {
-            
-            if (isR8) {
-                R8.main(args);
+        R8.run(command.build());
+
+        if (output.getFiles().isEmpty()) {
+            throw new IOException("R8 failed to produce dex files");
+        }
+        cache.put(key, output.getFiles(), mapping);
+        return output;
+    }
+
+    private D8Command.Builder newD8Command(
+            Path androidJar, JarIndexResourceProvider androidJarIndex) {
+        D8Command.Builder command = D8Command.builder().setMinApiLevel(MIN_API);
+        if (androidJarIndex != null) {
+            command.addLibraryResourceProvider(androidJarIndex);
+        } else {
+            command.addLibraryFiles(androidJar);
+        }
+
+        if (builder.config.desugarJdkLibsPath != null) {
+            File desugarJar = new File(builder.config.desugarJdkLibsPath);
+            JarIndexResourceProvider desugarIndex = JarIndexResourceProvider.forJar(desugarJar);
+            if (desugarIndex != null) {
+                command.addClasspathResourceProvider(desugarIndex);
             } else {
-                D8.main(args);
+                command.addClasspathFiles(desugarJar.toPath());
             }
-        } finally {
-            System.setErr(originalErr);
+        }
+
+        if (desugaredLibraryJson != null) {
+            command.addDesugaredLibraryConfiguration(desugaredLibraryJson);
+        }
+        return command;
+    }
+
+    private L8Command.Builder newL8Command(
+            Path androidJar, JarIndexResourceProvider androidJarIndex) {
+        L8Command.Builder command = L8Command.builder();
+        if (androidJarIndex != null) {
+            command.addLibraryResourceProvider(androidJarIndex);
+        } else {
+            command.addLibraryFiles(androidJar);
+        }
+        return command;
+    }
+
+    // Only with a configuration does the app use the desugared library, which L8 then dexes.
+    private File desugaredLibraryConfiguration() {
+        String path = builder.config.desugarJdkLibsConfigPath;
+        if (path == null || path.isEmpty() || builder.config.desugarJdkLibsPath == null) {
+            return null;
+        }
+        return new File(path);
+    }
 
-            if (!errors.toString().isEmpty()) {
-                builder.taskManager.debug((isR8 ? "R8" : "D8") + ": " + errors);
+    // Everything besides the class files themselves that goes into an archived dex file.
+    private String archiveKey() {
+        StringBuilder key = new StringBuilder();
+        key.append(Version.getVersionString()).append('|').append(MIN_API);
+        for (String path :
+                Arrays.asList(
+                        builder.config.androidJarPath,
+                        builder.config.desugarJdkLibsPath,
+                        builder.config.desugarJdkLibsConfigPath)) {
+            File file = path != null ? new File(path) : null;
+            key.append('|');
+            if (file != null && file.isFile()) {
+                key.append(file.getAbsolutePath())
+                        .append(':')
+                        .append(file.length())
+                        .append(':')
+                        .append(file.lastModified());
             }
         }
+        return key.toString();
     }
 
-    private boolean hasDexFiles() {
-        File[] dexFiles = builder.dexDir.listFiles((dir, name) -> name.endsWith(".dex"));
-        return dexFiles != null && dexFiles.length > 0;
+    private Origin origin(String binaryName) {
+        return new PathOrigin(builder.compiledClasses.getFile(binaryName).toPath());
     }
 }
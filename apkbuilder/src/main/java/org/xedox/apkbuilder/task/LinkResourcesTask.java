@@ -2,10 +2,12 @@ package org.xedox.apkbuilder.task;
 
 import org.xedox.apkbuilder.ApkBuilder;
 import java.io.File;
+import java.util.Arrays;
 import org.xedox.apkbuilder.util.BuildException;
 import org.xedox.apkbuilder.util.TaskManager;
 import org.xedox.javac.OptionsBuilder;
-import org.xedox.apkbuilder.util.BinaryUtils;
+import java.util.List;
+import org.xedox.apkbuilder.util.TaskGraph;
 
 public class LinkResourcesTask implements TaskManager.Task {
     private final ApkBuilder builder;
@@ -14,12 +16,41 @@ public class LinkResourcesTask implements TaskManager.Task {
         this.builder = builder;
     }
 
+    @Override
+    public List<File> getInputs() {
+        return TaskGraph.files(
+                builder.compiledResDir,
+                builder.config.androidJarPath,
+                builder.config.manifestPath,
+                builder.aapt2Binary);
+    }
+
+    @Override
+    public List<String> getInputProperties() {
+        return Arrays.asList(
+                builder.config.appPackage,
+                builder.config.packageId,
+                builder.config.versionCode,
+                builder.config.versionName,
+                builder.config.minSdk,
+                builder.config.targetSdk);
+    }
+
+    @Override
+    public List<File> getOutputs() {
+        return TaskGraph.files(builder.genDir);
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
     @Override
     public void run() throws Exception {
         File[] flatFiles = builder.compiledResDir.listFiles((dir, name) -> name.endsWith(".flat"));
         builder.genDir.mkdirs();
         OptionsBuilder opt = new OptionsBuilder();
-        opt.arg(builder.aapt2Binary.getAbsolutePath());
         opt.arg("link");
         for (File flatFile : flatFiles) {
             opt.arg(flatFile.getAbsolutePath());
@@ -35,14 +66,7 @@ public class LinkResourcesTask implements TaskManager.Task {
         opt.arg("--target-sdk-version", builder.config.targetSdk);
         opt.arg("--rename-manifest-package", builder.config.appPackage);
 
-        if (builder.debugCommands) {
-            builder.taskManager.debug("Using options: " + opt.buildCmd());
-        }
-
-        String output = BinaryUtils.execute(opt.build());
-        if (output != null && output.length() != 0) {
-            builder.taskManager.debug("aapt2 link output: " + output);
-        }
+        builder.runAapt2(opt);
         if (!builder.outputApk.exists()) {
             throw new BuildException("Output APK not created");
         }
@@ -4,9 +4,10 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import org.xedox.apkbuilder.ApkBuilder;
-import org.xedox.apkbuilder.util.BinaryUtils;
 import org.xedox.apkbuilder.util.TaskManager;
 import org.xedox.javac.OptionsBuilder;
+import java.util.List;
+import org.xedox.apkbuilder.util.TaskGraph;
 
 public class OptimizeTask implements TaskManager.Task {
 
@@ -16,17 +17,27 @@ public class OptimizeTask implements TaskManager.Task {
         this.builder = builder;
     }
 
+    @Override
+    public List<File> getInputs() {
+        return TaskGraph.files(new File(builder.config.buildPath, "base.apk"), builder.aapt2Binary);
+    }
+
+    @Override
+    public List<File> getOutputs() {
+        return TaskGraph.files(new File(builder.config.buildPath, "base.apk"));
+    }
+
     @Override
     public void run() throws Exception {
         File baseApk = new File(builder.config.buildPath, "base.apk");
         File outputApk = new File(builder.config.buildPath, "base_optimized.apk");
         // aapt2 optimize -o output.apk --enable-sparse-encoding input.apk
         OptionsBuilder opt = new OptionsBuilder();
-        opt.arg(builder.aapt2Binary.getAbsolutePath(), "optimize");
+        opt.arg("optimize");
         opt.arg("-o", outputApk.getAbsolutePath());
         opt.arg("--enable-sparse-encoding");
         opt.arg(baseApk.getAbsolutePath());
-        BinaryUtils.execute(opt.build());
+        builder.runAapt2(opt);
         Files.move(outputApk.toPath(), baseApk.toPath(), StandardCopyOption.REPLACE_EXISTING);
     }
 }
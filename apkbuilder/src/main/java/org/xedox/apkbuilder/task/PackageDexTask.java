@@ -0,0 +1,62 @@
+package org.xedox.apkbuilder.task;
+
+import org.xedox.apkbuilder.ApkBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import net.lingala.zip4j.ZipFile;
+import org.xedox.apkbuilder.util.BuildException;
+import org.xedox.apkbuilder.util.DexFiles;
+import java.util.List;
+import net.lingala.zip4j.model.ZipParameters;
+import org.xedox.apkbuilder.util.TaskGraph;
+import org.xedox.apkbuilder.util.TaskManager;
+
+public class PackageDexTask implements TaskManager.Task {
+    private final ApkBuilder builder;
+
+    public PackageDexTask(ApkBuilder builder) {
+        this.builder = builder;
+    }
+
+    @Override
+    public List<File> getInputs() {
+        return TaskGraph.files(
+                builder.dexDir, new File(builder.config.buildPath, "resources.apk"));
+    }
+
+    @Override
+    public List<File> getOutputs() {
+        return TaskGraph.files(new File(builder.config.buildPath, "base.apk"));
+    }
+
+    @Override
+    public void run() throws Exception {
+        File baseApk = new File(builder.config.buildPath, "base.apk");
+
+        List<byte[]> dexFiles = builder.dexFiles.get();
+        if (dexFiles.isEmpty()) {
+            throw new BuildException("No dex files found in " + builder.dexDir);
+        }
+
+        // A fresh copy, so no dex file of a previous build survives and later tasks never work
+        // on an apk they already optimized or aligned.
+        Files.copy(
+                new File(builder.config.buildPath, "resources.apk").toPath(),
+                baseApk.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        try (ZipFile zip = new ZipFile(baseApk)) {
+            for (int i = 0; i < dexFiles.size(); i++) {
+                String entryName = DexFiles.fileName(i);
+                zip.addStream(
+                        new ByteArrayInputStream(dexFiles.get(i)),
+                        new ZipParameters() {
+                            {
+                                setFileNameInZip(entryName);
+                            }
+                        });
+            }
+        }
+    }
+}
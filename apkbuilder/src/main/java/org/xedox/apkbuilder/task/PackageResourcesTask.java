@@ -4,11 +4,9 @@ import org.xedox.apkbuilder.ApkBuilder;
 import java.io.File;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.Files;
+import java.util.List;
 import net.lingala.zip4j.ZipFile;
-import org.xedox.apkbuilder.util.BuildException;
-import java.util.Arrays;
-import java.util.Comparator;
-import net.lingala.zip4j.model.ZipParameters;
+import org.xedox.apkbuilder.util.TaskGraph;
 import org.xedox.apkbuilder.util.TaskManager;
 
 public class PackageResourcesTask implements TaskManager.Task {
@@ -19,29 +17,26 @@ public class PackageResourcesTask implements TaskManager.Task {
     }
 
     @Override
-    public void run() throws Exception {
-        File baseApk = new File(builder.config.buildPath, "base.apk");
-        Files.copy(builder.outputApk.toPath(), baseApk.toPath(), StandardCopyOption.REPLACE_EXISTING);
-
-        try (ZipFile zip = new ZipFile(baseApk)) {
-            File[] dexFiles = builder.dexDir.listFiles((dir, name) -> name.endsWith(".dex"));
-            if (dexFiles == null || dexFiles.length == 0) {
-                throw new BuildException("No dex files found in " + builder.dexDir);
-            }
+    public List<File> getInputs() {
+        return TaskGraph.files(
+                builder.outputApk, builder.config.assetsDir, builder.config.nativeLibsDir);
+    }
 
-            Arrays.sort(dexFiles, Comparator.comparing(File::getName));
-
-            for (int i = 0; i < dexFiles.length; i++) {
-                String entryName = i == 0 ? "classes.dex" : "classes" + (i + 1) + ".dex";
-                zip.addFile(
-                        dexFiles[i],
-                        new ZipParameters() {
-                            {
-                                setFileNameInZip(entryName);
-                            }
-                        });
-            }
+    @Override
+    public List<File> getOutputs() {
+        return TaskGraph.files(new File(builder.config.buildPath, "resources.apk"));
+    }
 
+    @Override
+    public void run() throws Exception {
+        // Only PackageDexTask reads it, later tasks edit their own copy in base.apk.
+        File resourcesApk = new File(builder.config.buildPath, "resources.apk");
+        Files.copy(
+                builder.outputApk.toPath(),
+                resourcesApk.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+
+        try (ZipFile zip = new ZipFile(resourcesApk)) {
             if (builder.config.assetsDir != null) {
                 zip.addFolder(new File(builder.config.assetsDir));
             }
@@ -53,4 +48,4 @@ public class PackageResourcesTask implements TaskManager.Task {
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -10,7 +10,10 @@ import org.xedox.apkbuilder.ApkBuilder;
 import org.xedox.apkbuilder.util.TaskManager;
 import org.xedox.apkbuilder.util.BuildException;
 import java.io.File;
+import java.util.Arrays;
 import org.xedox.javac.OptionsBuilder;
+import java.util.List;
+import org.xedox.apkbuilder.util.TaskGraph;
 
 public class SignTask implements TaskManager.Task {
     private final ApkBuilder builder;
@@ -19,6 +22,30 @@ public class SignTask implements TaskManager.Task {
         this.builder = builder;
     }
 
+    @Override
+    public List<File> getInputs() {
+        ApkBuilder.BuildConfig.KeyConfig keyConfig = builder.config.keyConfig;
+        return TaskGraph.files(
+                new File(builder.config.buildPath, "base.apk"),
+                keyConfig.keystore.path,
+                keyConfig.keyWithCert.keyPath,
+                keyConfig.keyWithCert.certPath);
+    }
+
+    @Override
+    public List<File> getOutputs() {
+        return TaskGraph.files(new File(builder.config.buildPath, "signed_base.apk"));
+    }
+
+    @Override
+    public List<String> getInputProperties() {
+        ApkBuilder.BuildConfig.KeyConfig keyConfig = builder.config.keyConfig;
+        return Arrays.asList(
+                String.valueOf(builder.config.apkSignEnable),
+                String.valueOf(keyConfig.useKeystore),
+                String.valueOf(keyConfig.keystore.alias));
+    }
+
     @Override
     public void run() throws Exception {
         if (!builder.config.apkSignEnable) {
@@ -0,0 +1,199 @@
+package org.xedox.apkbuilder.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-lived {@code aapt2 daemon} process. The daemon reads one argument per line from stdin, an
+ * empty line ends a command, and it answers on stderr with the command diagnostics followed by
+ * {@code Error} (on failure) and {@code Done}. Both streams are pumped on background threads, so
+ * a wedged daemon is detected by the per-command deadline instead of blocking the build.
+ */
+public class Aapt2Daemon implements AutoCloseable {
+    private static final long STARTUP_TIMEOUT_SECONDS = 10;
+    private static final int MAX_REPLY_LINES = 1000;
+    // Queued by the stderr pump when the daemon's stream closes.
+    private static final String EOF = new String("<eof>");
+
+    private final File binary;
+    private Process process;
+    private BufferedWriter stdin;
+    private LinkedBlockingQueue<String> stderr;
+    private final List<String> stdout = new ArrayList<>();
+
+    public Aapt2Daemon(File binary) {
+        this.binary = binary;
+    }
+
+    public synchronized void start() throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(binary.getAbsolutePath(), "daemon");
+        process = pb.start();
+        stdin =
+                new BufferedWriter(
+                        new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        // A fresh queue per process, so the end of a killed daemon's stream never reaches the next.
+        LinkedBlockingQueue<String> replies = new LinkedBlockingQueue<>();
+        stderr = replies;
+
+        CountDownLatch ready = new CountDownLatch(1);
+        pump(
+                process.getInputStream(),
+                "aapt2-daemon-stdout",
+                line -> {
+                    if (ready.getCount() > 0 && line.equals("Ready")) {
+                        ready.countDown();
+                        return;
+                    }
+                    synchronized (stdout) {
+                        stdout.add(line);
+                    }
+                },
+                null);
+        pump(process.getErrorStream(), "aapt2-daemon-stderr", replies::add, () -> replies.add(EOF));
+
+        boolean isReady;
+        try {
+            isReady = ready.await(STARTUP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            isReady = false;
+        }
+        if (!isReady || !process.isAlive()) {
+            destroy();
+            throw new IOException("aapt2 daemon did not become ready");
+        }
+    }
+
+    public synchronized boolean isAlive() {
+        return process != null && process.isAlive();
+    }
+
+    /**
+     * Runs one command. A timeout of zero waits forever. A daemon that misses its deadline is killed,
+     * since it may still be working on the command, and the next call starts a fresh one.
+     */
+    public synchronized ProcessRunner.Result execute(long timeoutMillis, String... args)
+            throws Exception {
+        if (!isAlive()) {
+            destroy();
+            start();
+        }
+
+        try {
+            return send(timeoutMillis, args);
+        } catch (IOException crashed) {
+            // The daemon died mid-command; start a fresh one and retry once.
+            destroy();
+            start();
+            return send(timeoutMillis, args);
+        }
+    }
+
+    private ProcessRunner.Result send(long timeoutMillis, String... args) throws Exception {
+        long startTime = System.currentTimeMillis();
+        long deadline = timeoutMillis > 0 ? startTime + timeoutMillis : Long.MAX_VALUE;
+        synchronized (stdout) {
+            stdout.clear();
+        }
+        for (String arg : args) {
+            stdin.write(arg);
+            stdin.write('\n');
+        }
+        stdin.write('\n');
+        stdin.flush();
+
+        ProcessRunner.LineBuffer output = new ProcessRunner.LineBuffer(MAX_REPLY_LINES);
+        boolean failed = false;
+        boolean timedOut = false;
+        while (true) {
+            long remaining = deadline - System.currentTimeMillis();
+            String line = remaining > 0 ? stderr.poll(remaining, TimeUnit.MILLISECONDS) : null;
+            if (line == null) {
+                timedOut = true;
+                destroy();
+                break;
+            }
+            if (line == EOF) {
+                throw new IOException(
+                        "aapt2 daemon exited while running: " + String.join(" ", args));
+            }
+            if (line.equals("Done")) break;
+            if (line.equals("Error")) {
+                failed = true;
+                continue;
+            }
+            output.add(line);
+        }
+
+        List<String> stdoutLines;
+        synchronized (stdout) {
+            stdoutLines = new ArrayList<>(stdout);
+        }
+        return new ProcessRunner.Result(
+                Arrays.asList(args),
+                failed ? 1 : 0,
+                stdoutLines,
+                output.lines(),
+                -1,
+                System.currentTimeMillis() - startTime,
+                timedOut,
+                false);
+    }
+
+    private static void pump(
+            InputStream stream, String name, ProcessRunner.LineListener listener, Runnable onEof) {
+        Thread thread =
+                new Thread(
+                        () -> {
+                            try (BufferedReader reader =
+                                    new BufferedReader(
+                                            new InputStreamReader(
+                                                    stream, StandardCharsets.UTF_8))) {
+                                String line;
+                                while ((line = reader.readLine()) != null) {
+                                    listener.onLine(line);
+                                }
+                            } catch (IOException ignored) {
+                            } finally {
+                                if (onEof != null) onEof.run();
+                            }
+                        },
+                        name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (isAlive()) {
+            try {
+                stdin.write("quit\n\n");
+                stdin.flush();
+                process.waitFor(1, TimeUnit.SECONDS);
+            } catch (Exception ignored) {
+            }
+        }
+        destroy();
+    }
+
+    private void destroy() {
+        if (process != null) {
+            process.destroy();
+            process = null;
+        }
+        stdin = null;
+        stderr = null;
+    }
+}
@@ -0,0 +1,83 @@
+package org.xedox.apkbuilder.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small pool of {@link Aapt2Daemon}s. Daemons are started lazily, so a pool only spawns as many
+ * processes as there are concurrent callers. If the binary does not support daemon mode, every
+ * command falls back to a one-shot {@code aapt2} process.
+ */
+public class Aapt2DaemonPool implements AutoCloseable {
+    private final File binary;
+    private final int size;
+    private final LinkedBlockingQueue<Aapt2Daemon> idle = new LinkedBlockingQueue<>();
+    private final List<Aapt2Daemon> all = new ArrayList<>();
+    private volatile boolean daemonUnsupported;
+
+    public Aapt2DaemonPool(File binary, int size) {
+        this.binary = binary;
+        this.size = Math.max(1, size);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public ProcessRunner.Result execute(long timeoutMillis, String... args) throws Exception {
+        if (daemonUnsupported) {
+            return executeOnce(timeoutMillis, args);
+        }
+
+        Aapt2Daemon daemon;
+        try {
+            daemon = acquire();
+        } catch (IOException e) {
+            daemonUnsupported = true;
+            return executeOnce(timeoutMillis, args);
+        }
+        try {
+            return daemon.execute(timeoutMillis, args);
+        } finally {
+            idle.offer(daemon);
+        }
+    }
+
+    private Aapt2Daemon acquire() throws IOException, InterruptedException {
+        Aapt2Daemon daemon = idle.poll();
+        if (daemon != null) return daemon;
+
+        synchronized (all) {
+            if (all.size() < size) {
+                daemon = new Aapt2Daemon(binary);
+                daemon.start();
+                all.add(daemon);
+                return daemon;
+            }
+        }
+        return idle.take();
+    }
+
+    private ProcessRunner.Result executeOnce(long timeoutMillis, String... args)
+            throws Exception {
+        String[] command = new String[args.length + 1];
+        command[0] = binary.getAbsolutePath();
+        System.arraycopy(args, 0, command, 1, args.length);
+        return new ProcessRunner(command).timeout(timeoutMillis, TimeUnit.MILLISECONDS).run();
+    }
+
+    @Override
+    public void close() {
+        synchronized (all) {
+            for (Aapt2Daemon daemon : all) {
+                daemon.close();
+            }
+            all.clear();
+            idle.clear();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.xedox.apkbuilder.util;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One aapt2 diagnostic line, {@code [<path>[:<line>]: ]<level>: <message>}. Lines without a
+ * recognised level are kept as {@link Severity#INFO}.
+ */
+public class Aapt2Diagnostic {
+    private static final Pattern PATTERN =
+            Pattern.compile("^(?:(.+?)(?::(\\d+))?: )?(error|warn|warning|note): (.*)$");
+
+    public enum Severity {
+        ERROR,
+        WARNING,
+        NOTE,
+        INFO
+    }
+
+    public final Severity severity;
+    public final String path;
+    public final int line;
+    public final String message;
+
+    public Aapt2Diagnostic(Severity severity, String path, int line, String message) {
+        this.severity = severity;
+        this.path = path;
+        this.line = line;
+        this.message = message;
+    }
+
+    public static Aapt2Diagnostic parse(String text) {
+        Matcher matcher = PATTERN.matcher(text);
+        if (!matcher.matches()) {
+            return new Aapt2Diagnostic(Severity.INFO, null, -1, text);
+        }
+        String level = matcher.group(3);
+        Severity severity =
+                level.equals("error")
+                        ? Severity.ERROR
+                        : level.equals("note") ? Severity.NOTE : Severity.WARNING;
+        String line = matcher.group(2);
+        return new Aapt2Diagnostic(
+                severity,
+                matcher.group(1),
+                line != null ? Integer.parseInt(line) : -1,
+                matcher.group(4));
+    }
+
+    static void parse(String text, List<Aapt2Diagnostic> out) {
+        if (!text.trim().isEmpty()) out.add(parse(text));
+    }
+
+    public boolean isError() {
+        return severity == Severity.ERROR;
+    }
+
+    @Override
+    public String toString() {
+        if (severity == Severity.INFO) return message;
+        StringBuilder sb = new StringBuilder();
+        if (path != null) {
+            sb.append(path);
+            if (line >= 0) sb.append(':').append(line);
+            sb.append(": ");
+        }
+        return sb.append(severity.name().toLowerCase(Locale.ROOT)).append(": ").append(message).toString();
+    }
+}
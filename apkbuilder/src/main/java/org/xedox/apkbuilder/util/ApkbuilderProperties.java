@@ -19,6 +19,7 @@ public class ApkbuilderProperties {
         config.assetsDir = props.getProperty("assetsDir");
         config.nativeLibsDir = props.getProperty("nativeLibsDir");
         config.desugarJdkLibsPath = props.getProperty("desugarJdkLibsPath");
+        config.desugarJdkLibsConfigPath = props.getProperty("desugarJdkLibsConfigPath");
         config.proguardRulesPath = props.getProperty("proguardRulesPath");
 
         config.appPackage = props.getProperty("appPackage", "com.example.app");
@@ -31,11 +32,33 @@ public class ApkbuilderProperties {
         config.javaVersion = props.getProperty("javaVersion", "17");
 
         config.debugMode = Boolean.parseBoolean(props.getProperty("debugMode", "true"));
+        config.cleanBuild = Boolean.parseBoolean(props.getProperty("cleanBuild", "false"));
         config.r8enabled = Boolean.parseBoolean(props.getProperty("r8enabled", "false"));
+        config.dexArchiveEnable =
+                Boolean.parseBoolean(props.getProperty("dexArchiveEnable", "true"));
+        config.dexWorkers = Integer.parseInt(props.getProperty("dexWorkers", "0"));
         config.apkAlignEnable = Boolean.parseBoolean(props.getProperty("apkAlignEnable", "true"));
         config.apkSignEnable = Boolean.parseBoolean(props.getProperty("apkSignEnable", "true"));
         config.aapt2OptimizeEnable =
                 Boolean.parseBoolean(props.getProperty("aapt2OptimizeEnable", "true"));
+        config.aapt2DaemonEnable =
+                Boolean.parseBoolean(props.getProperty("aapt2DaemonEnable", "true"));
+        config.aapt2Workers = Integer.parseInt(props.getProperty("aapt2Workers", "0"));
+        config.aapt2Timeout = Integer.parseInt(props.getProperty("aapt2Timeout", "600"));
+        config.javacWorkers = Integer.parseInt(props.getProperty("javacWorkers", "0"));
+        config.javacMaxErrors = Integer.parseInt(props.getProperty("javacMaxErrors", "100"));
+        config.javacWarnings = Boolean.parseBoolean(props.getProperty("javacWarnings", "true"));
+        config.javacSyntaxCheck =
+                Boolean.parseBoolean(props.getProperty("javacSyntaxCheck", "false"));
+        config.maxWorkers =
+                Integer.parseInt(
+                        props.getProperty(
+                                "maxWorkers",
+                                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        config.buildCacheEnable =
+                Boolean.parseBoolean(props.getProperty("buildCacheEnable", "true"));
+        config.buildCacheDir = props.getProperty("buildCacheDir");
+        config.buildCacheMaxSize = Long.parseLong(props.getProperty("buildCacheMaxSize", "512"));
 
         String sources = props.getProperty("javaSources");
         if (sources != null) {
@@ -71,6 +94,7 @@ public class ApkbuilderProperties {
         props.setProperty("assetsDir", "assets");
         props.setProperty("nativeLibsDir", "libs");
         props.setProperty("desugarJdkLibsPath", "");
+        props.setProperty("desugarJdkLibsConfigPath", "");
         props.setProperty("proguardRulesPath", "");
 
         props.setProperty("appPackage", "com.example.app");
@@ -83,10 +107,24 @@ public class ApkbuilderProperties {
         props.setProperty("javaVersion", "17");
 
         props.setProperty("debugMode", "true");
+        props.setProperty("cleanBuild", "false");
         props.setProperty("r8enabled", "false");
+        props.setProperty("dexArchiveEnable", "true");
+        props.setProperty("dexWorkers", "0");
         props.setProperty("apkAlignEnable", "true");
         props.setProperty("apkSignEnable", "true");
         props.setProperty("aapt2OptimizeEnable", "true");
+        props.setProperty("aapt2DaemonEnable", "true");
+        props.setProperty("aapt2Workers", "0");
+        props.setProperty("aapt2Timeout", "600");
+        props.setProperty("javacWorkers", "0");
+        props.setProperty("javacMaxErrors", "100");
+        props.setProperty("javacWarnings", "true");
+        props.setProperty("javacSyntaxCheck", "false");
+        props.setProperty(
+                "maxWorkers", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        props.setProperty("buildCacheEnable", "true");
+        props.setProperty("buildCacheMaxSize", "512");
 
         props.setProperty("javaSources", "src/main/java");
 
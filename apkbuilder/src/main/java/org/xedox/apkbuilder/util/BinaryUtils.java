@@ -1,34 +1,27 @@
 package org.xedox.apkbuilder.util;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.concurrent.TimeUnit;
 
 public class BinaryUtils {
+    // Generous enough for a full link of a large project; callers with tighter needs pass their own.
+    public static final long DEFAULT_TIMEOUT_SECONDS = 10 * 60;
+
     public static String execute(String[] command) throws Exception {
-        Process process = null;
-        ProcessBuilder pb = new ProcessBuilder(command);
-        pb.redirectErrorStream(true);
-        process = pb.start();
+        return execute(command, DEFAULT_TIMEOUT_SECONDS);
+    }
 
-        StringBuilder output = new StringBuilder();
-        try (InputStream is = process.getInputStream();
-                BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-            }
+    public static String execute(String[] command, long timeoutSeconds) throws Exception {
+        ProcessRunner.Result result = run(command, timeoutSeconds);
+        if (result.timedOut) {
+            throw new BuildException("Command timed out: " + String.join(" ", command));
         }
+        return result.getOutput();
+    }
 
-        boolean finished = process.waitFor(30, TimeUnit.SECONDS);
-        if (!finished) {
-            process.destroyForcibly();
-            throw new RuntimeException("Command timed out: " + String.join(" ", command));
-        }
-        return output.toString();
+    public static ProcessRunner.Result run(String[] command, long timeoutSeconds)
+            throws Exception {
+        return new ProcessRunner(command).timeout(timeoutSeconds, TimeUnit.SECONDS).run();
     }
 
     public static void setExecutable(File file) throws Exception {
@@ -0,0 +1,382 @@
+package org.xedox.apkbuilder.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Machine-wide, content-addressed store for task outputs. Entries are keyed by a hash of the task
+ * type, its input properties and the content of its input files, so identical work done by
+ * another project or before a clean can be restored instead of recomputed.
+ *
+ * <p>Entries are published with an atomic rename and evicted least recently used first once the
+ * cache grows past its size cap. Eviction holds a file lock, so several builds on one host can
+ * share a cache directory. Restores take no lock; they are checked against the entry's manifest
+ * instead, and one that lost files to a concurrent eviction counts as a miss.
+ */
+public class BuildCache {
+    private static final String ENTRY_OUTPUTS = "outputs";
+    private static final String ENTRY_SIZE = "size";
+    private static final String ENTRY_MANIFEST = "manifest";
+    private static final String ABSENT = "absent";
+    private static final String LOCK_FILE = ".lock";
+    private static final String HASHES_FILE = "file-hashes.properties";
+    private static final String TEMP_PREFIX = "tmp-";
+    // Hashing a large jar is slower than reading a memo, so only files above this size are
+    // memoized.
+    private static final long MEMO_THRESHOLD = 1024 * 1024;
+    private static final long STALE_TEMP_AGE = 60 * 60 * 1000;
+
+    private static final Object evictionLock = new Object();
+
+    private final File dir;
+    private final long maxSize;
+    private final Properties fileHashes = new Properties();
+    private boolean fileHashesChanged;
+
+    public BuildCache(File dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        loadFileHashes();
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    public String computeKey(String type, List<File> inputs, List<String> properties)
+            throws IOException {
+        MessageDigest digest = BuildJournal.newDigest();
+        update(digest, type);
+        for (String property : properties) {
+            update(digest, "property:" + property);
+        }
+        for (int i = 0; i < inputs.size(); i++) {
+            File input = inputs.get(i);
+            update(digest, "input:" + i);
+            if (input.isDirectory()) {
+                digestDirectory(digest, input, "");
+            } else if (input.isFile()) {
+                update(digest, hashFile(input));
+            } else {
+                update(digest, ABSENT);
+            }
+        }
+        saveFileHashes();
+        return BuildJournal.toHex(digest.digest());
+    }
+
+    public boolean restore(String key, List<File> outputs) {
+        File entry = new File(dir, key);
+        File entryOutputs = new File(entry, ENTRY_OUTPUTS);
+        if (!entryOutputs.isDirectory()) return false;
+
+        try {
+            List<String> manifest = readManifest(entry);
+            for (int i = 0; i < outputs.size(); i++) {
+                File cached = new File(entryOutputs, String.valueOf(i));
+                File output = outputs.get(i);
+                delete(output);
+                if (cached.isDirectory()) {
+                    copy(cached, output);
+                } else if (cached.isFile()) {
+                    File parent = output.getParentFile();
+                    if (parent != null) parent.mkdirs();
+                    copy(cached, output);
+                }
+            }
+            // Eviction by another build can remove files while we copy, so check what arrived.
+            verify(manifest, outputs);
+            entry.setLastModified(System.currentTimeMillis());
+            return true;
+        } catch (IOException e) {
+            // The entry may have been evicted by another build while we were copying it.
+            for (File output : outputs) {
+                delete(output);
+            }
+            return false;
+        }
+    }
+
+    public void store(String key, List<File> outputs) throws IOException {
+        File entry = new File(dir, key);
+        if (entry.exists()) {
+            entry.setLastModified(System.currentTimeMillis());
+            return;
+        }
+
+        dir.mkdirs();
+        File temp = new File(dir, TEMP_PREFIX + UUID.randomUUID());
+        File tempOutputs = new File(temp, ENTRY_OUTPUTS);
+        try {
+            tempOutputs.mkdirs();
+            for (int i = 0; i < outputs.size(); i++) {
+                File output = outputs.get(i);
+                if (output.exists()) {
+                    copy(output, new File(tempOutputs, String.valueOf(i)));
+                }
+            }
+            List<String> manifest = new ArrayList<>();
+            listFiles(tempOutputs, "", manifest);
+            writeString(new File(temp, ENTRY_MANIFEST), String.join("\n", manifest));
+            writeString(new File(temp, ENTRY_SIZE), String.valueOf(sizeOf(tempOutputs)));
+            try {
+                Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // Another build published the same key first, which is just as good.
+                if (!entry.exists()) throw e;
+            }
+        } finally {
+            if (temp.exists()) delete(temp);
+        }
+
+        evict();
+    }
+
+    public void evict() throws IOException {
+        synchronized (evictionLock) {
+            dir.mkdirs();
+            try (RandomAccessFile lockFile = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+                    FileChannel channel = lockFile.getChannel()) {
+                // Released when the channel closes.
+                channel.lock();
+                File[] entries = dir.listFiles(File::isDirectory);
+                if (entries == null) return;
+
+                List<File> candidates = new ArrayList<>();
+                long total = 0;
+                long now = System.currentTimeMillis();
+                for (File entry : entries) {
+                    if (entry.getName().startsWith(TEMP_PREFIX)) {
+                        // Left behind by a build that died while storing an entry.
+                        if (now - entry.lastModified() > STALE_TEMP_AGE) delete(entry);
+                        continue;
+                    }
+                    candidates.add(entry);
+                    total += entrySize(entry);
+                }
+                if (total <= maxSize) return;
+
+                candidates.sort(Comparator.comparingLong(File::lastModified));
+                for (File entry : candidates) {
+                    if (total <= maxSize) break;
+                    long size = entrySize(entry);
+                    // Rename first so readers never observe a half deleted entry under its key.
+                    File doomed = new File(dir, TEMP_PREFIX + UUID.randomUUID());
+                    if (entry.renameTo(doomed)) {
+                        delete(doomed);
+                        total -= size;
+                    }
+                }
+            }
+        }
+    }
+
+    // One "path<TAB>size" line per file, paths relative to the entry's outputs directory.
+    private static void listFiles(File file, String path, List<String> lines) throws IOException {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) throw new IOException("Cannot list " + file);
+            Arrays.sort(children, Comparator.comparing(File::getName));
+            for (File child : children) {
+                String childPath = path.isEmpty() ? child.getName() : path + "/" + child.getName();
+                listFiles(child, childPath, lines);
+            }
+        } else {
+            lines.add(path + "\t" + file.length());
+        }
+    }
+
+    private static List<String> readManifest(File entry) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : readString(new File(entry, ENTRY_MANIFEST)).split("\n")) {
+            if (!line.isEmpty()) lines.add(line);
+        }
+        return lines;
+    }
+
+    private static void verify(List<String> manifest, List<File> outputs) throws IOException {
+        for (String line : manifest) {
+            File file;
+            long size;
+            try {
+                int tab = line.lastIndexOf('\t');
+                String path = line.substring(0, tab);
+                size = Long.parseLong(line.substring(tab + 1));
+                int slash = path.indexOf('/');
+                int index = Integer.parseInt(slash < 0 ? path : path.substring(0, slash));
+                File output = outputs.get(index);
+                file = slash < 0 ? output : new File(output, path.substring(slash + 1));
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new IOException("Corrupt cache manifest", e);
+            }
+            if (!file.isFile() || file.length() != size) {
+                throw new IOException("Incomplete restore of " + file);
+            }
+        }
+    }
+
+    private long entrySize(File entry) {
+        try {
+            return Long.parseLong(readString(new File(entry, ENTRY_SIZE)).trim());
+        } catch (IOException | NumberFormatException e) {
+            return sizeOf(entry);
+        }
+    }
+
+    private void digestDirectory(MessageDigest digest, File directory, String prefix)
+            throws IOException {
+        File[] children = directory.listFiles();
+        if (children == null) return;
+        Arrays.sort(children, Comparator.comparing(File::getName));
+        for (File child : children) {
+            String relative = prefix + child.getName();
+            if (child.isDirectory()) {
+                digestDirectory(digest, child, relative + "/");
+            } else {
+                update(digest, relative + "=" + hashFile(child));
+            }
+        }
+    }
+
+    private String hashFile(File file) throws IOException {
+        String memoKey = null;
+        if (file.length() >= MEMO_THRESHOLD) {
+            memoKey = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+            synchronized (fileHashes) {
+                String memo = fileHashes.getProperty(memoKey);
+                if (memo != null) return memo;
+            }
+        }
+
+        MessageDigest digest = BuildJournal.newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        String hash = BuildJournal.toHex(digest.digest());
+
+        if (memoKey != null) {
+            synchronized (fileHashes) {
+                fileHashes.setProperty(memoKey, hash);
+                fileHashesChanged = true;
+            }
+        }
+        return hash;
+    }
+
+    private void loadFileHashes() {
+        File file = new File(dir, HASHES_FILE);
+        if (!file.isFile()) return;
+        try (InputStream in = new FileInputStream(file)) {
+            fileHashes.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            fileHashes.clear();
+        }
+        fileHashesChanged = pruneFileHashes();
+    }
+
+    // Drops memos of files that are gone or changed since, which no lookup can hit any more.
+    private boolean pruneFileHashes() {
+        boolean pruned = false;
+        for (String key : fileHashes.stringPropertyNames()) {
+            int mtime = key.lastIndexOf('|');
+            int length = mtime > 0 ? key.lastIndexOf('|', mtime - 1) : -1;
+            File file = length > 0 ? new File(key.substring(0, length)) : null;
+            if (file == null
+                    || !key.substring(length + 1).equals(file.length() + "|" + file.lastModified())
+                    || !file.isFile()) {
+                fileHashes.remove(key);
+                pruned = true;
+            }
+        }
+        return pruned;
+    }
+
+    private void saveFileHashes() {
+        synchronized (fileHashes) {
+            if (!fileHashesChanged) return;
+            pruneFileHashes();
+            dir.mkdirs();
+            File temp = new File(dir, TEMP_PREFIX + UUID.randomUUID() + ".properties");
+            try {
+                try (OutputStream out = new FileOutputStream(temp)) {
+                    fileHashes.store(out, "Content hashes of large build inputs");
+                }
+                Files.move(
+                        temp.toPath(),
+                        new File(dir, HASHES_FILE).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                fileHashesChanged = false;
+            } catch (IOException e) {
+                temp.delete();
+            }
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static void copy(File source, File target) throws IOException {
+        if (source.isDirectory()) {
+            target.mkdirs();
+            File[] children = source.listFiles();
+            if (children == null) throw new IOException("Cannot list " + source);
+            for (File child : children) {
+                copy(child, new File(target, child.getName()));
+            }
+        } else {
+            Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static long sizeOf(File file) {
+        if (file.isFile()) return file.length();
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+
+    private static String readString(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(File file, String value) throws IOException {
+        Files.write(file.toPath(), value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,195 @@
+package org.xedox.apkbuilder.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent record of the input and output fingerprints of every task that ran in the last
+ * build. Fingerprints are based on file size and modification time, which keeps a no-op check
+ * cheap even for large source trees.
+ */
+public class BuildJournal {
+    private static final String ABSENT = "absent";
+    private static final Map<String, String> contentHashes = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final Map<String, Map<String, String>> entries = new HashMap<>();
+    private boolean loaded;
+
+    public BuildJournal(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized void load() throws IOException {
+        entries.clear();
+        loaded = true;
+        if (!file.isFile()) return;
+
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        } catch (IllegalArgumentException e) {
+            // A truncated journal only costs a full rebuild.
+            return;
+        }
+        for (String key : props.stringPropertyNames()) {
+            int split = key.indexOf('|');
+            if (split <= 0) continue;
+            entries.computeIfAbsent(key.substring(0, split), k -> new HashMap<>())
+                    .put(key.substring(split + 1), props.getProperty(key));
+        }
+    }
+
+    public synchronized void save() throws IOException {
+        if (!loaded) return;
+        Properties props = new Properties();
+        for (Map.Entry<String, Map<String, String>> task : entries.entrySet()) {
+            for (Map.Entry<String, String> entry : task.getValue().entrySet()) {
+                props.setProperty(task.getKey() + "|" + entry.getKey(), entry.getValue());
+            }
+        }
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) parent.mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            props.store(out, "Build journal");
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        if (file.exists()) file.delete();
+    }
+
+    public synchronized void forget(String task) {
+        entries.remove(task);
+    }
+
+    public synchronized boolean isUpToDate(
+            String task, Map<String, String> inputs, Map<String, String> outputs, String properties) {
+        Map<String, String> recorded = entries.get(task);
+        if (recorded == null) return false;
+
+        Map<String, String> current = toEntries(inputs, outputs, properties);
+        return recorded.equals(current);
+    }
+
+    public synchronized void record(
+            String task, Map<String, String> inputs, Map<String, String> outputs, String properties) {
+        entries.put(task, toEntries(inputs, outputs, properties));
+    }
+
+    /** Replaces the recorded fingerprint of {@code path} wherever {@code task} references it. */
+    public synchronized void update(String task, String path, String fingerprint) {
+        Map<String, String> recorded = entries.get(task);
+        if (recorded == null) return;
+        recorded.replace("in|" + path, fingerprint);
+        recorded.replace("out|" + path, fingerprint);
+    }
+
+    private static Map<String, String> toEntries(
+            Map<String, String> inputs, Map<String, String> outputs, String properties) {
+        Map<String, String> result = new HashMap<>();
+        for (Map.Entry<String, String> entry : inputs.entrySet()) {
+            result.put("in|" + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : outputs.entrySet()) {
+            result.put("out|" + entry.getKey(), entry.getValue());
+        }
+        result.put("props", properties);
+        return result;
+    }
+
+    public static Map<String, String> fingerprint(List<File> files) throws IOException {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (File file : files) {
+            result.put(file.getAbsolutePath(), fingerprint(file));
+        }
+        return result;
+    }
+
+    public static String fingerprint(File file) throws IOException {
+        if (!file.exists()) return ABSENT;
+        if (file.isFile()) return file.length() + ":" + file.lastModified();
+
+        MessageDigest digest = newDigest();
+        digestDirectory(digest, file, "");
+        return toHex(digest.digest());
+    }
+
+    private static void digestDirectory(MessageDigest digest, File dir, String prefix) {
+        File[] children = dir.listFiles();
+        if (children == null) return;
+        Arrays.sort(children, Comparator.comparing(File::getName));
+        for (File child : children) {
+            String relative = prefix + child.getName();
+            if (child.isDirectory()) {
+                digestDirectory(digest, child, relative + "/");
+            } else {
+                String line = relative + ":" + child.length() + ":" + child.lastModified() + "\n";
+                digest.update(line.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * SHA-256 of the content of {@code file}, remembered for the life of the process while its size
+     * and modification time stay the same.
+     */
+    public static String contentHash(File file) throws IOException {
+        String stamp = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        String hash = contentHashes.get(stamp);
+        if (hash != null) return hash;
+
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        hash = toHex(digest.digest());
+        contentHashes.put(stamp, hash);
+        return hash;
+    }
+
+    static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (Exception e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
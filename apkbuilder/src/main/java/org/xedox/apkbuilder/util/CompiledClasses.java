@@ -0,0 +1,93 @@
+package org.xedox.apkbuilder.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.xedox.javac.IncrementalCompiler;
+
+/**
+ * The class files of the last compilation, kept in memory as the compiler emits them so the dexer
+ * does not have to walk and re-read classesDir. Classes that were not recompiled in this process
+ * are read from classesDir on first use. Anything kept is dropped once the compiler state file
+ * changes behind our back, for example when classesDir is restored from the build cache. The bytes
+ * only live for one build, see {@link #releaseBytes}.
+ */
+public class CompiledClasses {
+    private final File classesDir;
+    private final File stateFile;
+    private final Map<String, byte[]> classes = new ConcurrentHashMap<>();
+    private volatile List<String> types;
+    private volatile String stateStamp;
+
+    public CompiledClasses(File classesDir, File stateFile) {
+        this.classesDir = classesDir;
+        this.stateFile = stateFile;
+    }
+
+    public void put(String binaryName, byte[] bytes) {
+        classes.put(binaryName, bytes);
+    }
+
+    /** Sets the complete list of classes, dropping any bytes kept for classes not in it. */
+    public void setTypes(Collection<String> binaryNames) {
+        Set<String> keep = new HashSet<>(binaryNames);
+        classes.keySet().retainAll(keep);
+        types = new ArrayList<>(binaryNames);
+        stateStamp = stamp();
+    }
+
+    /**
+     * Drops the kept class bytes but not the list of classes, once nothing of this build needs
+     * them any more. A later build reads whatever it did not compile itself back from classesDir.
+     */
+    public void releaseBytes() {
+        classes.clear();
+    }
+
+    public void clear() {
+        classes.clear();
+        types = null;
+        stateStamp = null;
+    }
+
+    /** Binary names of all classes, from the compiler state when nothing was compiled here. */
+    public List<String> getTypes() {
+        dropIfStale();
+        List<String> current = types;
+        if (current == null) {
+            current = IncrementalCompiler.readOutputTypes(stateFile);
+            types = current;
+            stateStamp = stamp();
+        }
+        return current;
+    }
+
+    public void dropIfStale() {
+        String stamp = stateStamp;
+        if (stamp != null && !stamp.equals(stamp())) clear();
+    }
+
+    public byte[] getBytes(String binaryName) throws IOException {
+        byte[] bytes = classes.get(binaryName);
+        if (bytes == null) {
+            bytes = Files.readAllBytes(getFile(binaryName).toPath());
+            classes.put(binaryName, bytes);
+        }
+        return bytes;
+    }
+
+    private String stamp() {
+        return stateFile.length() + ":" + stateFile.lastModified();
+    }
+
+    public File getFile(String binaryName) {
+        return new File(classesDir, binaryName + ".class");
+    }
+}
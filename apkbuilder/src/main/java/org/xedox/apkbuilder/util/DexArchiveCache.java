@@ -0,0 +1,392 @@
+package org.xedox.apkbuilder.util;
+
+import com.android.tools.r8.ClassFileResourceProvider;
+import com.android.tools.r8.D8;
+import com.android.tools.r8.D8Command;
+import com.android.tools.r8.DesugarGraphConsumer;
+import com.android.tools.r8.OutputMode;
+import com.android.tools.r8.ProgramResource;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.origin.PathOrigin;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Per-class dex archives, so only classes that changed since the last build go through D8.
+ *
+ * <p>A top-level class is dexed together with its nested classes, which share a nest and whose
+ * synthetics D8 may place in one another. Each such group is stored in a directory named after a
+ * hash of its class files, holding D8's intermediate output for them and the hashes of the
+ * groups their desugaring looked at, as reported by D8. A group is dexed again when its own class
+ * files or any of those groups change.
+ */
+public class DexArchiveCache {
+    private static final String DEPENDENCIES_FILE = "dependencies";
+    private static final String TEMP_PREFIX = "tmp-";
+    // Below this much class file data per shard, starting another D8 costs more than it saves.
+    private static final long MIN_SHARD_BYTES = 512 * 1024;
+    // What a D8 run takes besides its classes, and how much larger classes get once in D8's IR.
+    private static final long SHARD_MEMORY = 32 * 1024 * 1024;
+    private static final long IR_FACTOR = 8;
+
+    private final File dir;
+    private final String configKey;
+    private int workers;
+    private int dexedClasses;
+    private int lastShards;
+
+    /**
+     * @param configKey anything besides the class files that changes D8's output, such as the D8
+     *     version, the minimum API level and the desugared library
+     */
+    public DexArchiveCache(File dir, String configKey) {
+        this.dir = dir;
+        this.configKey = configKey;
+    }
+
+    /** Number of concurrent D8 runs for a large set of classes; 0 picks one per core. */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /** Number of D8 runs the classes of the last {@link #update} were split into. */
+    public int getShards() {
+        return lastShards;
+    }
+
+    /** Number of classes the last {@link #update} had to dex. */
+    public int getDexedClasses() {
+        return dexedClasses;
+    }
+
+    /**
+     * Brings the archives up to date with {@code types} and returns their dex files, ready to be
+     * merged. Archives of classes no longer in {@code types} are deleted.
+     *
+     * @param command a D8 command with the library and desugaring classpath already set
+     */
+    public List<Path> update(
+            CompiledClasses classes, List<String> types, Supplier<D8Command.Builder> command)
+            throws Exception {
+        Map<String, List<String>> groups = new TreeMap<>();
+        for (String type : types) {
+            groups.computeIfAbsent(topLevel(type), key -> new ArrayList<>()).add(type);
+        }
+        Map<String, String> hashes = new HashMap<>();
+        for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+            Collections.sort(group.getValue());
+            hashes.put(group.getKey(), hash(classes, group.getValue()));
+        }
+
+        List<String> stale = new ArrayList<>();
+        for (String group : groups.keySet()) {
+            if (!isValid(archive(hashes.get(group)), hashes)) stale.add(group);
+        }
+        dexedClasses = 0;
+        lastShards = 0;
+        if (!stale.isEmpty()) dex(classes, groups, hashes, stale, command);
+
+        List<Path> dexFiles = new ArrayList<>();
+        for (String group : groups.keySet()) {
+            File archive = archive(hashes.get(group));
+            File[] files = archive.listFiles((d, name) -> name.endsWith(".dex"));
+            if (files == null) continue;
+            List<Path> paths = new ArrayList<>();
+            for (File file : files) {
+                paths.add(file.toPath());
+            }
+            Collections.sort(paths);
+            dexFiles.addAll(paths);
+        }
+        prune(new HashSet<>(hashes.values()));
+        return dexFiles;
+    }
+
+    private void dex(
+            CompiledClasses classes,
+            Map<String, List<String>> groups,
+            Map<String, String> hashes,
+            List<String> stale,
+            Supplier<D8Command.Builder> command)
+            throws Exception {
+        Map<Origin, String> origins = new HashMap<>();
+        Map<String, Origin> descriptors = new HashMap<>();
+        for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+            for (String type : group.getValue()) {
+                Origin origin = new PathOrigin(classes.getFile(type).toPath());
+                origins.put(origin, group.getKey());
+                descriptors.put("L" + type + ";", origin);
+            }
+        }
+
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        DesugarGraphConsumer graph =
+                new DesugarGraphConsumer() {
+                    @Override
+                    public void accept(Origin dependent, Origin dependency) {
+                        String from = origins.get(dependent);
+                        String to = origins.get(dependency);
+                        if (from == null || to == null || from.equals(to)) return;
+                        synchronized (dependencies) {
+                            dependencies.computeIfAbsent(from, key -> new TreeSet<>()).add(to);
+                        }
+                    }
+
+                    @Override
+                    public void finished() {}
+                };
+
+        List<List<String>> shards = shard(classes, groups, stale);
+        lastShards = shards.size();
+        dir.mkdirs();
+        File output = new File(dir, TEMP_PREFIX + UUID.randomUUID());
+        int cores = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(shards.size());
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                List<String> shard = shards.get(i);
+                File shardOutput = new File(output, String.valueOf(i));
+                shardOutput.mkdirs();
+                D8Command.Builder d8 = command.get();
+                Map<String, Origin> classpath = new HashMap<>(descriptors);
+                for (String group : shard) {
+                    for (String type : groups.get(group)) {
+                        String descriptor = "L" + type + ";";
+                        Origin origin = descriptors.get(descriptor);
+                        d8.addClassProgramData(classes.getBytes(type), origin);
+                        classpath.remove(descriptor);
+                        dexedClasses++;
+                    }
+                }
+                d8.addClasspathResourceProvider(new ClasspathProvider(classes, classpath))
+                        .setIntermediate(true)
+                        .setDesugarGraphConsumer(graph)
+                        .setOutput(shardOutput.toPath(), OutputMode.DexFilePerClassFile);
+                // Shards split the cores between them instead of each taking them all.
+                int threads = Math.max(1, cores / shards.size());
+                results.add(pool.submit(() -> run(d8.build(), threads)));
+            }
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                    throw e;
+                }
+            }
+
+            for (int i = 0; i < shards.size(); i++) {
+                File shardOutput = new File(output, String.valueOf(i));
+                for (String group : shards.get(i)) {
+                    StringBuilder lines = new StringBuilder();
+                    for (String dependency :
+                            dependencies.getOrDefault(group, Collections.emptySet())) {
+                        lines.append(dependency).append('=').append(hashes.get(dependency));
+                        lines.append('\n');
+                    }
+                    publish(shardOutput, groups.get(group), hashes.get(group), lines.toString());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            delete(output);
+        }
+    }
+
+    private static Void run(D8Command command, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            D8.run(command, executor);
+            return null;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Splits the stale groups into shards of about the same size, keeping packages together.
+     * There are as many shards as workers, fewer when the classes are too few to be worth it or
+     * the heap could not hold the shards side by side.
+     */
+    private List<List<String>> shard(
+            CompiledClasses classes, Map<String, List<String>> groups, List<String> stale)
+            throws IOException {
+        Map<String, Long> sizes = new HashMap<>();
+        long total = 0;
+        for (String group : stale) {
+            long size = 0;
+            for (String type : groups.get(group)) {
+                size += classes.getBytes(type).length;
+            }
+            sizes.put(group, size);
+            total += size;
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        int count = workers > 0 ? workers : runtime.availableProcessors();
+        count = (int) Math.max(1, Math.min(count, total / MIN_SHARD_BYTES));
+        long heap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        while (count > 1 && count * SHARD_MEMORY + total * IR_FACTOR > heap) {
+            count--;
+        }
+        if (count == 1) return Collections.singletonList(stale);
+
+        // Stale groups are sorted by name, so a package is a run of them.
+        List<List<String>> shards = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        long currentSize = 0;
+        long target = total / count;
+        String currentPackage = null;
+        for (String group : stale) {
+            String pkg = group.substring(0, Math.max(0, group.lastIndexOf('/')));
+            if (currentSize >= target
+                    && !pkg.equals(currentPackage)
+                    && shards.size() < count - 1) {
+                shards.add(current);
+                current = new ArrayList<>();
+                currentSize = 0;
+            }
+            current.add(group);
+            currentSize += sizes.get(group);
+            currentPackage = pkg;
+        }
+        shards.add(current);
+        return shards;
+    }
+
+    // Moves the dex files of one group out of D8's output into its archive.
+    private void publish(File output, List<String> types, String hash, String dependencies)
+            throws IOException {
+        File temp = new File(dir, TEMP_PREFIX + UUID.randomUUID());
+        try {
+            temp.mkdirs();
+            for (String type : types) {
+                File dex = new File(output, type + ".dex");
+                // An archive without it would be taken as complete by every later build.
+                if (!dex.isFile()) throw new IOException("D8 wrote no dex file for " + type);
+                Files.move(dex.toPath(), new File(temp, simpleName(type) + ".dex").toPath());
+            }
+            Files.write(
+                    new File(temp, DEPENDENCIES_FILE).toPath(),
+                    dependencies.getBytes(StandardCharsets.UTF_8));
+            File archive = archive(hash);
+            // Still there if one of its dependencies changed.
+            delete(archive);
+            Files.move(temp.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (temp.exists()) delete(temp);
+        }
+    }
+
+    private boolean isValid(File archive, Map<String, String> hashes) {
+        File dependencies = new File(archive, DEPENDENCIES_FILE);
+        if (!dependencies.isFile()) return false;
+        try {
+            for (String line : Files.readAllLines(dependencies.toPath(), StandardCharsets.UTF_8)) {
+                if (line.isEmpty()) continue;
+                int separator = line.lastIndexOf('=');
+                if (separator < 0) return false;
+                String current = hashes.get(line.substring(0, separator));
+                if (!line.substring(separator + 1).equals(current)) return false;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void prune(Set<String> live) {
+        File[] entries = dir.listFiles();
+        if (entries == null) return;
+        for (File entry : entries) {
+            if (!live.contains(entry.getName())) delete(entry);
+        }
+    }
+
+    private String hash(CompiledClasses classes, List<String> types) throws IOException {
+        MessageDigest digest = BuildJournal.newDigest();
+        digest.update(configKey.getBytes(StandardCharsets.UTF_8));
+        for (String type : types) {
+            digest.update((byte) 0);
+            digest.update(type.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(classes.getBytes(type));
+        }
+        return BuildJournal.toHex(digest.digest());
+    }
+
+    private File archive(String hash) {
+        return new File(dir, hash);
+    }
+
+    private static String topLevel(String type) {
+        int slash = type.lastIndexOf('/');
+        int dollar = type.indexOf('$', slash + 1);
+        return dollar > 0 ? type.substring(0, dollar) : type;
+    }
+
+    private static String simpleName(String type) {
+        return type.substring(type.lastIndexOf('/') + 1);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    // The classes that are not being dexed, which desugaring of the others may need to look at.
+    private static final class ClasspathProvider implements ClassFileResourceProvider {
+        private final CompiledClasses classes;
+        private final Map<String, Origin> origins;
+
+        ClasspathProvider(CompiledClasses classes, Map<String, Origin> origins) {
+            this.classes = classes;
+            this.origins = origins;
+        }
+
+        @Override
+        public Set<String> getClassDescriptors() {
+            return origins.keySet();
+        }
+
+        @Override
+        public ProgramResource getProgramResource(String descriptor) {
+            Origin origin = origins.get(descriptor);
+            if (origin == null) return null;
+            try {
+                byte[] bytes = classes.getBytes(descriptor.substring(1, descriptor.length() - 1));
+                return ProgramResource.fromBytes(
+                        origin, ProgramResource.Kind.CF, bytes, Collections.singleton(descriptor));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.xedox.apkbuilder.util;
+
+import com.android.tools.r8.ByteDataView;
+import com.android.tools.r8.DexIndexedConsumer;
+import com.android.tools.r8.DiagnosticsHandler;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The dex files of the last dexing, handed over by D8 or R8 in memory so packaging does not read
+ * them back. They are also written to dexDir, which the journal and the build cache track and
+ * which packaging falls back to when dexing did not run in this process, or dexDir was restored
+ * from the build cache since.
+ */
+public class DexFiles {
+    private final File dexDir;
+    private volatile List<byte[]> files;
+    private volatile String stamp;
+
+    public DexFiles(File dexDir) {
+        this.dexDir = dexDir;
+    }
+
+    /** A consumer to give D8 or R8, whose output goes to {@link #publish}. */
+    public Consumer newConsumer() {
+        return new Consumer();
+    }
+
+    /** Replaces dexDir with the output of {@code consumer} and keeps it for {@link #get}. */
+    public void publish(Consumer consumer) throws IOException {
+        List<byte[]> output = consumer.getFiles();
+        files = null;
+        dexDir.mkdirs();
+        File[] old = dexDir.listFiles((dir, name) -> name.endsWith(".dex"));
+        if (old != null) {
+            for (File file : old) {
+                file.delete();
+            }
+        }
+        for (int i = 0; i < output.size(); i++) {
+            Files.write(new File(dexDir, fileName(i)).toPath(), output.get(i));
+        }
+        stamp = stamp();
+        files = output;
+    }
+
+    /** The dex files in the order they go into the apk, starting with classes.dex. */
+    public List<byte[]> get() throws IOException {
+        List<byte[]> current = files;
+        if (current != null && stamp().equals(stamp)) return current;
+
+        List<byte[]> result = new ArrayList<>();
+        for (File file : list()) {
+            result.add(Files.readAllBytes(file.toPath()));
+        }
+        return result;
+    }
+
+    /** Drops the dex files kept in memory; {@link #get} reads them from dexDir from then on. */
+    public void release() {
+        files = null;
+        stamp = null;
+    }
+
+    /** Name of the {@code index}th dex file in an apk, counting from 0. */
+    public static String fileName(int index) {
+        return index == 0 ? "classes.dex" : "classes" + (index + 1) + ".dex";
+    }
+
+    private List<File> list() {
+        File[] dexFiles = dexDir.listFiles((dir, name) -> name.endsWith(".dex"));
+        if (dexFiles == null) return Collections.emptyList();
+        // By number, so classes10.dex comes after classes9.dex.
+        Arrays.sort(
+                dexFiles,
+                Comparator.comparingInt((File file) -> file.getName().length())
+                        .thenComparing(File::getName));
+        return Arrays.asList(dexFiles);
+    }
+
+    private String stamp() {
+        StringBuilder result = new StringBuilder();
+        for (File file : list()) {
+            result.append(file.getName())
+                    .append(':')
+                    .append(file.length())
+                    .append(':')
+                    .append(file.lastModified())
+                    .append('|');
+        }
+        return result.toString();
+    }
+
+    /** Collects dex files, which D8 and R8 may hand over from several threads in any order. */
+    public static final class Consumer implements DexIndexedConsumer {
+        private final TreeMap<Integer, byte[]> files = new TreeMap<>();
+
+        @Override
+        public synchronized void accept(
+                int fileIndex,
+                ByteDataView data,
+                Set<String> descriptors,
+                DiagnosticsHandler handler) {
+            files.put(fileIndex, data.copyByteData());
+        }
+
+        @Override
+        public void finished(DiagnosticsHandler handler) {}
+
+        /** Adds a dex file after all others, such as one of a library dexed on its own. */
+        public synchronized void append(byte[] dex) {
+            files.put(files.isEmpty() ? 0 : files.lastKey() + 1, dex);
+        }
+
+        public synchronized List<byte[]> getFiles() {
+            return new ArrayList<>(files.values());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.xedox.apkbuilder.util;
+
+import com.android.tools.r8.ClassFileResourceProvider;
+import com.android.tools.r8.ProgramResource;
+import com.android.tools.r8.origin.ArchiveEntryOrigin;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.origin.PathOrigin;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.xedox.javac.JarIndex;
+
+/**
+ * Serves a library or classpath jar to D8 and R8 through its {@link JarIndex}, so only the classes
+ * they actually resolve get inflated.
+ */
+public class JarIndexResourceProvider implements ClassFileResourceProvider {
+    private final JarIndex index;
+    private final Origin origin;
+    private volatile Set<String> descriptors;
+
+    public JarIndexResourceProvider(JarIndex index) {
+        this.index = index;
+        this.origin = new PathOrigin(index.getJar().toPath());
+    }
+
+    /** A provider for {@code jar}, or null when no index can be built for it. */
+    public static JarIndexResourceProvider forJar(File jar) {
+        try {
+            return new JarIndexResourceProvider(JarIndex.forJar(jar));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Set<String> getClassDescriptors() {
+        Set<String> result = descriptors;
+        if (result == null) {
+            result = new HashSet<>();
+            for (String type : index.getTypes()) {
+                result.add("L" + type + ";");
+            }
+            descriptors = result;
+        }
+        return result;
+    }
+
+    @Override
+    public ProgramResource getProgramResource(String descriptor) {
+        if (!descriptor.startsWith("L") || !descriptor.endsWith(";")) return null;
+        String type = descriptor.substring(1, descriptor.length() - 1);
+        try {
+            byte[] bytes = index.readClass(type);
+            if (bytes == null) return null;
+            return ProgramResource.fromBytes(
+                    new ArchiveEntryOrigin(type + ".class", origin),
+                    ProgramResource.Kind.CF,
+                    bytes,
+                    Collections.singleton(descriptor));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.xedox.apkbuilder.util;
+
+import com.android.tools.r8.L8;
+import com.android.tools.r8.L8Command;
+import com.android.tools.r8.Version;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Dex files of libraries, made once for each library content, minimum API level and D8 version
+ * and reused by every later build. So far that is the desugared JDK library, dexed by L8.
+ */
+public class LibraryDexCache {
+    private static final String TEMP_PREFIX = "tmp-";
+
+    private final File dir;
+
+    public LibraryDexCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * The dex files of the desugared JDK library in {@code jar}, as configured by the desugared
+     * library JSON in {@code configuration}.
+     *
+     * @param command an L8 command with the library already set
+     */
+    public List<byte[]> getDesugaredLibrary(
+            File jar, File configuration, int minApi, Supplier<L8Command.Builder> command)
+            throws Exception {
+        String json =
+                new String(Files.readAllBytes(configuration.toPath()), StandardCharsets.UTF_8);
+        MessageDigest digest = BuildJournal.newDigest();
+        String key =
+                "L8|"
+                        + Version.getVersionString()
+                        + "|"
+                        + minApi
+                        + "|"
+                        + BuildJournal.contentHash(jar)
+                        + "|";
+        digest.update(key.getBytes(StandardCharsets.UTF_8));
+        digest.update(json.getBytes(StandardCharsets.UTF_8));
+        File entry = new File(dir, BuildJournal.toHex(digest.digest()));
+
+        List<byte[]> cached = read(entry);
+        if (cached != null) return cached;
+
+        DexFiles.Consumer output = new DexFiles.Consumer();
+        L8.run(
+                command.get()
+                        .addProgramFiles(jar.toPath())
+                        .setMinApiLevel(minApi)
+                        .addDesugaredLibraryConfiguration(json)
+                        .setProgramConsumer(output)
+                        .build());
+        List<byte[]> files = output.getFiles();
+        write(entry, files);
+        return files;
+    }
+
+    private static List<byte[]> read(File entry) throws IOException {
+        if (!entry.isDirectory()) return null;
+        List<byte[]> files = new ArrayList<>();
+        for (int i = 0; ; i++) {
+            File file = new File(entry, DexFiles.fileName(i));
+            if (!file.isFile()) return files;
+            files.add(Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    private void write(File entry, List<byte[]> files) throws IOException {
+        dir.mkdirs();
+        File temp = new File(dir, TEMP_PREFIX + UUID.randomUUID());
+        try {
+            temp.mkdirs();
+            for (int i = 0; i < files.size(); i++) {
+                Files.write(new File(temp, DexFiles.fileName(i)).toPath(), files.get(i));
+            }
+            try {
+                Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // Another build dexed the same library first.
+                if (!entry.isDirectory()) throw e;
+            }
+        } finally {
+            File[] children = temp.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    child.delete();
+                }
+            }
+            temp.delete();
+        }
+    }
+}
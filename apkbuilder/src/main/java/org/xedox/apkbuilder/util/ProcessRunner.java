@@ -0,0 +1,278 @@
+package org.xedox.apkbuilder.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an external command without blocking on its output. stdout and stderr are pumped on
+ * background threads into line listeners and bounded ring buffers, while the calling thread only
+ * waits for exit, a deadline or {@link #cancel()}.
+ */
+public class ProcessRunner {
+    private static final int DEFAULT_BUFFER_LINES = 1000;
+    private static final long POLL_INTERVAL_MILLIS = 50;
+    // USER_HZ is 100 on every Linux/Android ABI we run on.
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+
+    public interface LineListener {
+        void onLine(String line);
+    }
+
+    private final List<String> command;
+    private long timeoutMillis;
+    private int bufferLines = DEFAULT_BUFFER_LINES;
+    private LineListener stdoutListener;
+    private LineListener stderrListener;
+    private volatile boolean cancelled;
+    private volatile Process process;
+
+    public ProcessRunner(String... command) {
+        this.command = Arrays.asList(command);
+    }
+
+    public ProcessRunner timeout(long timeout, TimeUnit unit) {
+        this.timeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    public ProcessRunner bufferLines(int bufferLines) {
+        this.bufferLines = bufferLines;
+        return this;
+    }
+
+    public ProcessRunner onStdout(LineListener listener) {
+        this.stdoutListener = listener;
+        return this;
+    }
+
+    public ProcessRunner onStderr(LineListener listener) {
+        this.stderrListener = listener;
+        return this;
+    }
+
+    public void cancel() {
+        cancelled = true;
+        Process running = process;
+        if (running != null) running.destroy();
+    }
+
+    public Result run() throws IOException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+        long childrenCpuTime = readChildrenCpuTime();
+        Process started = new ProcessBuilder(command).start();
+        process = started;
+        if (cancelled) started.destroy();
+        started.getOutputStream().close();
+
+        LineBuffer stdout = new LineBuffer(bufferLines);
+        LineBuffer stderr = new LineBuffer(bufferLines);
+        Thread stdoutPump = pump(started.getInputStream(), stdout, stdoutListener, "stdout");
+        Thread stderrPump = pump(started.getErrorStream(), stderr, stderrListener, "stderr");
+
+        long pid = pidOf(started);
+        long cpuTime = -1;
+        boolean timedOut = false;
+        long deadline = timeoutMillis > 0 ? startTime + timeoutMillis : Long.MAX_VALUE;
+
+        try {
+            // Sampled before every wait, so a process that exits within the first interval still
+            // reports the time it used up to the last sample instead of -1. Once waitFor returns
+            // the process is reaped and /proc no longer has it.
+            while (true) {
+                long sample = readCpuTime(pid);
+                if (sample >= 0) cpuTime = sample;
+                if (started.waitFor(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) break;
+                if (cancelled) break;
+                if (System.currentTimeMillis() >= deadline) {
+                    timedOut = true;
+                    break;
+                }
+            }
+        } finally {
+            if (started.isAlive()) {
+                started.destroy();
+                if (!started.waitFor(1, TimeUnit.SECONDS)) {
+                    started.destroyForcibly();
+                }
+            }
+            process = null;
+        }
+
+        // A descendant that inherited the pipes can keep them open after the process exits.
+        joinUntil(stdoutPump, deadline);
+        joinUntil(stderrPump, deadline);
+
+        int exitCode = started.waitFor();
+        if (cpuTime < 0) {
+            // Gone before the first sample. Its time was added to ours when it was reaped, along
+            // with that of any other child reaped meanwhile, so this is an upper bound.
+            long children = readChildrenCpuTime();
+            if (childrenCpuTime >= 0 && children >= 0) cpuTime = children - childrenCpuTime;
+        }
+        return new Result(
+                command,
+                exitCode,
+                stdout.lines(),
+                stderr.lines(),
+                cpuTime,
+                System.currentTimeMillis() - startTime,
+                timedOut,
+                cancelled && !timedOut);
+    }
+
+    private static void joinUntil(Thread thread, long deadline) throws InterruptedException {
+        if (deadline == Long.MAX_VALUE) {
+            thread.join();
+            return;
+        }
+        thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+    }
+
+    private static Thread pump(
+            InputStream stream, LineBuffer buffer, LineListener listener, String name) {
+        Thread thread =
+                new Thread(
+                        () -> {
+                            try (BufferedReader reader =
+                                    new BufferedReader(
+                                            new InputStreamReader(
+                                                    stream, StandardCharsets.UTF_8))) {
+                                String line;
+                                while ((line = reader.readLine()) != null) {
+                                    buffer.add(line);
+                                    if (listener != null) listener.onLine(line);
+                                }
+                            } catch (IOException ignored) {
+                                // The stream is closed when the process is destroyed.
+                            }
+                        },
+                        "process-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    // Process.pid() is not available on every Android release, but the implementation keeps it.
+    private static long pidOf(Process process) {
+        try {
+            Method method = Process.class.getMethod("pid");
+            return ((Number) method.invoke(process)).longValue();
+        } catch (Throwable ignored) {
+        }
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return ((Number) field.get(process)).longValue();
+        } catch (Throwable ignored) {
+        }
+        return -1;
+    }
+
+    private static long readCpuTime(long pid) {
+        if (pid <= 0) return -1;
+        return readStatTime("/proc/" + pid + "/stat", 11);
+    }
+
+    // cutime and cstime: the time of every child this process has reaped.
+    private static long readChildrenCpuTime() {
+        return readStatTime("/proc/self/stat", 13);
+    }
+
+    private static long readStatTime(String path, int field) {
+        try {
+            String stat =
+                    new String(Files.readAllBytes(new File(path).toPath()), StandardCharsets.UTF_8);
+            // The command name may contain spaces, so fields are counted after its closing ')'.
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            long ticks = Long.parseLong(fields[field]) + Long.parseLong(fields[field + 1]);
+            return ticks * 1000 / CLOCK_TICKS_PER_SECOND;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    static class LineBuffer {
+        private final ArrayDeque<String> lines = new ArrayDeque<>();
+        private final int capacity;
+        private int dropped;
+
+        LineBuffer(int capacity) {
+            this.capacity = Math.max(1, capacity);
+        }
+
+        synchronized void add(String line) {
+            if (lines.size() == capacity) {
+                lines.removeFirst();
+                dropped++;
+            }
+            lines.addLast(line);
+        }
+
+        synchronized List<String> lines() {
+            List<String> result = new ArrayList<>(lines.size() + 1);
+            if (dropped > 0) result.add("... " + dropped + " earlier lines dropped");
+            result.addAll(lines);
+            return result;
+        }
+    }
+
+    public static class Result {
+        public final List<String> command;
+        public final int exitCode;
+        public final List<String> stdout;
+        public final List<String> stderr;
+        public final long cpuTimeMillis;
+        public final long durationMillis;
+        public final boolean timedOut;
+        public final boolean cancelled;
+
+        public Result(
+                List<String> command,
+                int exitCode,
+                List<String> stdout,
+                List<String> stderr,
+                long cpuTimeMillis,
+                long durationMillis,
+                boolean timedOut,
+                boolean cancelled) {
+            this.command = command;
+            this.exitCode = exitCode;
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.cpuTimeMillis = cpuTimeMillis;
+            this.durationMillis = durationMillis;
+            this.timedOut = timedOut;
+            this.cancelled = cancelled;
+        }
+
+        public boolean isSuccess() {
+            return exitCode == 0 && !timedOut && !cancelled;
+        }
+
+        public String getOutput() {
+            StringBuilder sb = new StringBuilder();
+            for (String line : stdout) sb.append(line).append("\n");
+            for (String line : stderr) sb.append(line).append("\n");
+            return sb.toString();
+        }
+
+        public List<Aapt2Diagnostic> getDiagnostics() {
+            List<Aapt2Diagnostic> diagnostics = new ArrayList<>();
+            for (String line : stdout) Aapt2Diagnostic.parse(line, diagnostics);
+            for (String line : stderr) Aapt2Diagnostic.parse(line, diagnostics);
+            return diagnostics;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.xedox.apkbuilder.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The output of the last R8 run of a project, its dex files and mapping, kept under a key of
+ * everything R8 read. A release build whose program classes, library and keep rules hash the same
+ * as last time takes the previous output instead of running R8 again.
+ */
+public class R8ResultCache {
+    private static final String KEY_FILE = "key";
+    private static final String MAPPING_FILE = "mapping.txt";
+
+    private final File dir;
+
+    public R8ResultCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * A key of {@code properties}, the content of {@code files} and the bytes of the program
+     * classes {@code types}.
+     */
+    public static String computeKey(
+            List<String> properties, List<File> files, CompiledClasses classes, List<String> types)
+            throws IOException {
+        MessageDigest digest = BuildJournal.newDigest();
+        for (String property : properties) {
+            update(digest, "property:" + property);
+        }
+        for (File file : files) {
+            update(digest, "file:" + (file.isFile() ? BuildJournal.contentHash(file) : "absent"));
+        }
+        List<String> sorted = new ArrayList<>(types);
+        Collections.sort(sorted);
+        for (String type : sorted) {
+            update(digest, "class:" + type);
+            digest.update(classes.getBytes(type));
+        }
+        return BuildJournal.toHex(digest.digest());
+    }
+
+    /** Where R8 should write the mapping that {@link #put} will keep. */
+    public File getMappingOutput() {
+        dir.mkdirs();
+        return new File(dir, MAPPING_FILE + ".tmp");
+    }
+
+    /**
+     * The dex files stored under {@code key}, with the mapping copied to {@code mapping}, or null
+     * when the last run had another key.
+     */
+    public List<byte[]> get(String key, File mapping) throws IOException {
+        File keyFile = new File(dir, KEY_FILE);
+        if (!keyFile.isFile()) return null;
+        String stored = new String(Files.readAllBytes(keyFile.toPath()), StandardCharsets.UTF_8);
+        if (!stored.equals(key)) return null;
+
+        List<byte[]> files = new ArrayList<>();
+        for (int i = 0; ; i++) {
+            File file = new File(dir, DexFiles.fileName(i));
+            if (!file.isFile()) break;
+            files.add(Files.readAllBytes(file.toPath()));
+        }
+        if (files.isEmpty()) return null;
+        copyMapping(new File(dir, MAPPING_FILE), mapping);
+        return files;
+    }
+
+    /**
+     * Replaces the stored output with {@code files} and the mapping R8 wrote to {@link
+     * #getMappingOutput}, which is also copied to {@code mapping}.
+     */
+    public void put(String key, List<byte[]> files, File mapping) throws IOException {
+        dir.mkdirs();
+        // The key goes first and last, so an interrupted put leaves no key that matches.
+        File keyFile = new File(dir, KEY_FILE);
+        keyFile.delete();
+        File[] old = dir.listFiles((d, name) -> name.endsWith(".dex"));
+        if (old != null) {
+            for (File file : old) {
+                file.delete();
+            }
+        }
+        for (int i = 0; i < files.size(); i++) {
+            Files.write(new File(dir, DexFiles.fileName(i)).toPath(), files.get(i));
+        }
+        File output = getMappingOutput();
+        File stored = new File(dir, MAPPING_FILE);
+        if (output.isFile()) {
+            Files.move(output.toPath(), stored.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            stored.delete();
+        }
+        copyMapping(stored, mapping);
+        Files.write(keyFile.toPath(), key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void copyMapping(File stored, File mapping) throws IOException {
+        if (stored.isFile()) {
+            Files.copy(stored.toPath(), mapping.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            mapping.delete();
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+}
@@ -0,0 +1,326 @@
+package org.xedox.apkbuilder.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs {@link TaskManager.Task}s as a dependency graph. Edges are inferred from the files each
+ * task declares: a task depends on every previously added task whose outputs overlap one of its
+ * inputs or outputs, so registration order acts as the tie breaker for in-place edits.
+ *
+ * <p>When a {@link BuildJournal} is set, a task is skipped if none of its dependencies ran and its
+ * inputs, outputs and input properties match the journal. Tasks without inputs always run.
+ * Cacheable tasks that are out of date are then looked up in the {@link BuildCache}, if one is
+ * set, before they are actually run.
+ */
+public class TaskGraph {
+
+    private final TaskManager taskManager;
+    private final List<Node> nodes = new ArrayList<>();
+    private BuildJournal journal;
+    private BuildCache cache;
+    private long wallTime;
+
+    public TaskGraph(TaskManager taskManager) {
+        this.taskManager = taskManager;
+    }
+
+    public static class Node {
+        public final String name;
+        public final TaskManager.Task task;
+        private final List<File> inputFiles;
+        private final List<File> outputFiles;
+        private final List<Path> inputs = new ArrayList<>();
+        private final List<Path> outputs = new ArrayList<>();
+        private final List<Node> dependencies = new ArrayList<>();
+        private final List<Node> dependents = new ArrayList<>();
+        private int remaining;
+        private volatile boolean executed;
+        private long startTime;
+        private long endTime;
+
+        private Node(String name, TaskManager.Task task) {
+            this.name = name;
+            this.task = task;
+            this.inputFiles = task.getInputs();
+            this.outputFiles = task.getOutputs();
+            for (File file : inputFiles) inputs.add(normalize(file));
+            for (File file : outputFiles) outputs.add(normalize(file));
+        }
+
+        public boolean isExecuted() {
+            return executed;
+        }
+
+        public List<Node> getDependencies() {
+            return Collections.unmodifiableList(dependencies);
+        }
+
+        public long getDuration() {
+            return Math.max(0, endTime - startTime);
+        }
+
+        private boolean produces(List<Path> paths) {
+            for (Path output : outputs) {
+                for (Path path : paths) {
+                    if (output.startsWith(path) || path.startsWith(output)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    public Node add(String name, TaskManager.Task task) {
+        Node node = new Node(name, task);
+        for (Node previous : nodes) {
+            if (previous.produces(node.inputs) || previous.produces(node.outputs)) {
+                node.dependencies.add(previous);
+                previous.dependents.add(node);
+            }
+        }
+        nodes.add(node);
+        return node;
+    }
+
+    public void setJournal(BuildJournal journal) {
+        this.journal = journal;
+    }
+
+    public void setCache(BuildCache cache) {
+        this.cache = cache;
+    }
+
+    public List<Node> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    public void execute(int workers) throws Exception {
+        long graphStartTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, workers));
+        CompletionService<Node> completion = new ExecutorCompletionService<>(executor);
+        int running = 0;
+        Throwable failure = null;
+
+        try {
+            for (Node node : nodes) {
+                node.remaining = node.dependencies.size();
+                if (node.remaining == 0) {
+                    submit(completion, node);
+                    running++;
+                }
+            }
+
+            while (running > 0) {
+                Future<Node> future = completion.take();
+                running--;
+                Node done;
+                try {
+                    done = future.get();
+                } catch (ExecutionException e) {
+                    // Let tasks that are already running finish, but do not start new ones.
+                    if (failure == null) failure = e.getCause();
+                    continue;
+                }
+                if (failure != null) continue;
+                for (Node next : done.dependents) {
+                    if (--next.remaining == 0) {
+                        submit(completion, next);
+                        running++;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            if (journal != null) {
+                if (failure == null) refreshJournal();
+                journal.save();
+            }
+            wallTime = System.currentTimeMillis() - graphStartTime;
+        }
+
+        if (failure instanceof Exception) throw (Exception) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new BuildException(failure.getMessage(), failure);
+    }
+
+    private void submit(CompletionService<Node> completion, Node node) {
+        completion.submit(
+                () -> {
+                    node.startTime = System.currentTimeMillis();
+                    try {
+                        run(node);
+                    } finally {
+                        node.endTime = System.currentTimeMillis();
+                    }
+                    return node;
+                });
+    }
+
+    private void run(Node node) throws Exception {
+        if (journal == null) {
+            runOrRestore(node);
+            return;
+        }
+
+        Map<String, String> inputs = BuildJournal.fingerprint(node.inputFiles);
+        String properties = String.join("\n", node.task.getInputProperties());
+        if (!node.inputFiles.isEmpty() && !dependencyExecuted(node)) {
+            Map<String, String> outputs = BuildJournal.fingerprint(node.outputFiles);
+            if (journal.isUpToDate(node.name, inputs, outputs, properties)) {
+                taskManager.upToDate(node.name);
+                return;
+            }
+        }
+
+        journal.forget(node.name);
+        runOrRestore(node);
+        journal.record(node.name, inputs, BuildJournal.fingerprint(node.outputFiles), properties);
+    }
+
+    private void runOrRestore(Node node) throws Exception {
+        String key = null;
+        if (cache != null && node.task.isCacheable()) {
+            key =
+                    cache.computeKey(
+                            node.task.getClass().getName(),
+                            node.inputFiles,
+                            node.task.getInputProperties());
+            if (cache.restore(key, node.outputFiles)) {
+                taskManager.fromCache(node.name);
+                // Restored outputs are new to this build, so dependents must not be skipped.
+                node.executed = true;
+                return;
+            }
+        }
+
+        taskManager.task(node.name, node.task);
+        node.executed = true;
+
+        if (key != null) {
+            try {
+                cache.store(key, node.outputFiles);
+            } catch (IOException e) {
+                taskManager.warn("Failed to store " + node.name + " in build cache: " + e);
+            }
+        }
+    }
+
+    private boolean dependencyExecuted(Node node) {
+        for (Node dependency : node.dependencies) {
+            if (dependency.executed) return true;
+        }
+        return false;
+    }
+
+    // Later tasks may rewrite files that earlier tasks produced or consumed (base.apk is edited in
+    // place), so the journal keeps the final state of every file the graph itself writes.
+    private void refreshJournal() throws IOException {
+        Map<Path, String> fingerprints = new HashMap<>();
+        for (Node node : nodes) {
+            List<File> files = new ArrayList<>(node.inputFiles);
+            files.addAll(node.outputFiles);
+            for (File file : files) {
+                Path path = normalize(file);
+                if (!isProduced(path)) continue;
+                String fingerprint = fingerprints.get(path);
+                if (fingerprint == null) {
+                    fingerprint = BuildJournal.fingerprint(file);
+                    fingerprints.put(path, fingerprint);
+                }
+                journal.update(node.name, file.getAbsolutePath(), fingerprint);
+            }
+        }
+    }
+
+    private boolean isProduced(Path path) {
+        List<Path> paths = Collections.singletonList(path);
+        for (Node node : nodes) {
+            if (node.produces(paths)) return true;
+        }
+        return false;
+    }
+
+    public List<Node> getCriticalPath() {
+        List<Node> path = new ArrayList<>();
+        long[] finish = new long[nodes.size()];
+        Node[] previous = new Node[nodes.size()];
+        Node last = null;
+        long longest = -1;
+
+        // Nodes are stored in topological order, so one forward pass is enough.
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            long start = 0;
+            for (Node dependency : node.dependencies) {
+                long candidate = finish[nodes.indexOf(dependency)];
+                if (candidate >= start) {
+                    start = candidate;
+                    previous[i] = dependency;
+                }
+            }
+            finish[i] = start + node.getDuration();
+            if (finish[i] > longest) {
+                longest = finish[i];
+                last = node;
+            }
+        }
+
+        for (Node node = last; node != null; node = previous[nodes.indexOf(node)]) {
+            path.add(0, node);
+        }
+        return path;
+    }
+
+    public void printCriticalPath() {
+        List<Node> path = getCriticalPath();
+        if (path.isEmpty()) return;
+
+        long pathTime = 0;
+        StringBuilder sb = new StringBuilder();
+        for (Node node : path) {
+            if (sb.length() > 0) sb.append(" -> ");
+            sb.append(node.name).append(" (").append(node.getDuration()).append("ms)");
+            pathTime += node.getDuration();
+        }
+
+        PrintStream out = taskManager.getPrintStream();
+        out.println("\n=== Critical Path ===");
+        out.println(sb);
+        out.println("Critical path: " + pathTime + "ms | Wall time: " + wallTime + "ms");
+    }
+
+    public static List<File> files(Object... entries) {
+        List<File> files = new ArrayList<>();
+        for (Object entry : entries) {
+            if (entry instanceof File) {
+                files.add((File) entry);
+            } else if (entry instanceof String && !((String) entry).isEmpty()) {
+                files.add(new File((String) entry));
+            } else if (entry instanceof Iterable) {
+                for (Object item : (Iterable<?>) entry) {
+                    files.addAll(files(item));
+                }
+            }
+        }
+        return files;
+    }
+
+    private static Path normalize(File file) {
+        return file.getAbsoluteFile().toPath().normalize();
+    }
+}
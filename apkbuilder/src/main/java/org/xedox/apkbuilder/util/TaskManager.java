@@ -1,18 +1,28 @@
 package org.xedox.apkbuilder.util;
 
+import java.io.File;
 import java.io.PrintStream;
-import java.util.Stack;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class TaskManager {
 
     private final PrintStream out;
     private boolean verbose = false;
-    private final Stack<Long> taskStartTimes = new Stack<>();
-    private final AtomicInteger taskDepth = new AtomicInteger(0);
-    private int successCount = 0;
-    private int failureCount = 0;
-    private int warningCount = 0;
+    // Inheritable so that worker threads spawned by TaskGraph keep the caller's indentation.
+    private final InheritableThreadLocal<Integer> taskDepth =
+            new InheritableThreadLocal<Integer>() {
+                @Override
+                protected Integer initialValue() {
+                    return 0;
+                }
+            };
+    private final AtomicInteger successCount = new AtomicInteger(0);
+    private final AtomicInteger failureCount = new AtomicInteger(0);
+    private final AtomicInteger upToDateCount = new AtomicInteger(0);
+    private final AtomicInteger fromCacheCount = new AtomicInteger(0);
+    private final AtomicInteger warningCount = new AtomicInteger(0);
     private long globalStartTime = 0;
 
     public TaskManager(PrintStream out) {
@@ -22,6 +32,22 @@ public class TaskManager {
     @FunctionalInterface
     public interface Task {
         void run() throws Exception;
+
+        default List<File> getInputs() {
+            return Collections.emptyList();
+        }
+
+        default List<File> getOutputs() {
+            return Collections.emptyList();
+        }
+
+        default List<String> getInputProperties() {
+            return Collections.emptyList();
+        }
+
+        default boolean isCacheable() {
+            return false;
+        }
     }
 
     public void start() {
@@ -30,36 +56,43 @@ public class TaskManager {
     }
 
     public void reset() {
-        successCount = 0;
-        failureCount = 0;
-        warningCount = 0;
+        successCount.set(0);
+        failureCount.set(0);
+        upToDateCount.set(0);
+        fromCacheCount.set(0);
+        warningCount.set(0);
         taskDepth.set(0);
-        taskStartTimes.clear();
     }
 
     public void task(String name, Task task) throws Exception {
         long startTime = System.currentTimeMillis();
-        taskStartTimes.push(startTime);
 
         printTaskHeader(name);
-        taskDepth.incrementAndGet();
+        taskDepth.set(taskDepth.get() + 1);
 
         try {
             task.run();
-            successCount++;
+            successCount.incrementAndGet();
             printTaskSuccess(name, startTime);
         } catch (Exception e) {
-            failureCount++;
+            failureCount.incrementAndGet();
             printTaskFailure(name, startTime);
             throw e;
         } finally {
-            taskDepth.decrementAndGet();
-            if (!taskStartTimes.isEmpty()) {
-                taskStartTimes.pop();
-            }
+            taskDepth.set(taskDepth.get() - 1);
         }
     }
 
+    public void upToDate(String name) {
+        upToDateCount.incrementAndGet();
+        out.println(indent() + ":Task " + name + " UP-TO-DATE");
+    }
+
+    public void fromCache(String name) {
+        fromCacheCount.incrementAndGet();
+        out.println(indent() + ":Task " + name + " FROM-CACHE");
+    }
+
     public void log(String message) {
         out.println(indent() + message);
     }
@@ -75,7 +108,7 @@ public class TaskManager {
     }
 
     public void warn(String message) {
-        warningCount++;
+        warningCount.incrementAndGet();
         out.println(indent() + "[WARN] " + message);
     }
 
@@ -89,8 +122,14 @@ public class TaskManager {
     public String getStatistics() {
         long totalTime = globalStartTime > 0 ? System.currentTimeMillis() - globalStartTime : 0;
         return String.format(
-                "Tasks: %d successful, %d failed, %d warnings | Total time: %dms",
-                successCount, failureCount, warningCount, totalTime);
+                "Tasks: %d successful, %d up-to-date, %d from cache, %d failed, %d warnings"
+                        + " | Total time: %dms",
+                successCount.get(),
+                upToDateCount.get(),
+                fromCacheCount.get(),
+                failureCount.get(),
+                warningCount.get(),
+                totalTime);
     }
 
     public void printStatistics() {
@@ -121,9 +160,10 @@ public class TaskManager {
     }
 
     private String indent() {
-        if (taskDepth.get() <= 0) {
+        int depth = taskDepth.get();
+        if (depth <= 0) {
             return "";
         }
-        return "   ".repeat(taskDepth.get());
+        return "   ".repeat(depth);
     }
 }
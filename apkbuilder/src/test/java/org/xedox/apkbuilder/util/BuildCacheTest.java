@@ -0,0 +1,77 @@
+package org.xedox.apkbuilder.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BuildCacheTest {
+    private static final int LARGE = 2 * 1024 * 1024;
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void keepsOnlyMemosOfCurrentFiles() throws IOException {
+        File cacheDir = temp.newFolder("cache");
+        File first = large("first.jar", 1);
+        File second = large("second.jar", 2);
+        BuildCache cache = new BuildCache(cacheDir, Long.MAX_VALUE);
+        key(cache, first);
+        key(cache, second);
+        assertEquals(2, memos(cacheDir).size());
+
+        // A changed file replaces its memo instead of adding one.
+        Files.write(first.toPath(), new byte[LARGE + 1]);
+        assertTrue(first.setLastModified(first.lastModified() + 2000));
+        key(cache, first);
+        Properties memos = memos(cacheDir);
+        assertEquals(2, memos.size());
+        for (String key : memos.stringPropertyNames()) {
+            assertTrue(
+                    key,
+                    key.endsWith(first.length() + "|" + first.lastModified())
+                            || key.startsWith(second.getAbsolutePath() + "|"));
+        }
+
+        // A deleted one is dropped the next time the memo is written.
+        Files.delete(second.toPath());
+        BuildCache reopened = new BuildCache(cacheDir, Long.MAX_VALUE);
+        key(reopened, large("third.jar", 3));
+        memos = memos(cacheDir);
+        assertEquals(2, memos.size());
+        for (String key : memos.stringPropertyNames()) {
+            assertFalse(key, key.startsWith(second.getAbsolutePath() + "|"));
+        }
+    }
+
+    private File large(String name, int fill) throws IOException {
+        byte[] bytes = new byte[LARGE];
+        Arrays.fill(bytes, (byte) fill);
+        File file = new File(temp.getRoot(), name);
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    private static void key(BuildCache cache, File input) throws IOException {
+        cache.computeKey("test", Collections.singletonList(input), Collections.emptyList());
+    }
+
+    private static Properties memos(File cacheDir) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(new File(cacheDir, "file-hashes.properties"))) {
+            properties.load(in);
+        }
+        return properties;
+    }
+}
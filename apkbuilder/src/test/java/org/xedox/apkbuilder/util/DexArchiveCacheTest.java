@@ -0,0 +1,194 @@
+package org.xedox.apkbuilder.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import com.android.tools.r8.D8;
+import com.android.tools.r8.D8Command;
+import com.android.tools.r8.origin.PathOrigin;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xedox.javac.JavaCompiler;
+
+/** Needs D8 and an android.jar, run with {@code -PandroidJar=<android.jar>}. */
+public class DexArchiveCacheTest {
+    private static final int MIN_API = 21;
+    private static final String ANDROID_JAR = System.getProperty("androidJar", "");
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    private File sourceDir;
+    private File classesDir;
+    private File archiveDir;
+    private DexArchiveCache archives;
+
+    @Before
+    public void writeSources() throws IOException {
+        assumeFalse("No android.jar given", ANDROID_JAR.isEmpty());
+        sourceDir = temp.newFolder("src");
+        classesDir = temp.newFolder("classes");
+        archiveDir = new File(temp.getRoot(), "archives");
+        archives = new DexArchiveCache(archiveDir, "test");
+        write(
+                "p/A.java",
+                "package p; public class A {"
+                        + " int f() { Runnable r = () -> {}; r.run(); return new Inner().g(); }"
+                        + " class Inner { int g() { return 1; } } }");
+        write("p/B.java", "package p; public class B { String name() { return \"b\"; } }");
+        write(
+                "q/Shape.java",
+                "package q; public interface Shape { default int sides() { return 0; } }");
+        write("q/Square.java", "package q; public class Square implements Shape {}");
+    }
+
+    @Test
+    public void editRedexesOnlyItsGroup() throws Exception {
+        List<String> types = update();
+        assertEquals(types.size(), archives.getDexedClasses());
+        update();
+        assertEquals(0, archives.getDexedClasses());
+
+        write("p/B.java", "package p; public class B { String name() { return \"bb\"; } }");
+        update();
+        assertEquals(1, archives.getDexedClasses());
+
+        // A and A$Inner, with the lambda D8 synthesizes into A's dex file.
+        write("p/A.java", readSource("p/A.java").replace("return 1;", "return 2;"));
+        update();
+        assertEquals(2, archives.getDexedClasses());
+    }
+
+    @Test
+    public void defaultMethodEditRedexesImplementations() throws Exception {
+        update();
+        write("q/Shape.java", readSource("q/Shape.java").replace("return 0;", "return 4;"));
+        update();
+        // Square got a forwarding method to Shape's companion class, so it is dexed again too.
+        assertEquals(2, archives.getDexedClasses());
+    }
+
+    @Test
+    public void removedClassLosesItsArchive() throws Exception {
+        List<Path> dexFiles = new ArrayList<>();
+        update(dexFiles);
+        assertTrue(hasDexFile(dexFiles, "B.dex"));
+        int count = archiveDir.list().length;
+
+        Files.delete(new File(sourceDir, "p/B.java").toPath());
+        update(dexFiles);
+        assertFalse(hasDexFile(dexFiles, "B.dex"));
+        assertEquals(count - 1, archiveDir.list().length);
+        for (File archive : archiveDir.listFiles()) {
+            assertFalse(archive.getName(), new File(archive, "B.dex").exists());
+        }
+    }
+
+    @Test
+    public void mergedArchivesMatchOneD8Run() throws Exception {
+        update();
+        write("p/B.java", "package p; public class B { int size() { return 3; } }");
+        List<Path> dexFiles = new ArrayList<>();
+        CompiledClasses classes = update(dexFiles);
+
+        DexFiles.Consumer merged = new DexFiles.Consumer();
+        D8.run(newD8Command().addProgramFiles(dexFiles).setProgramConsumer(merged).build());
+
+        DexFiles.Consumer full = new DexFiles.Consumer();
+        D8Command.Builder command = newD8Command().setProgramConsumer(full);
+        for (String type : classes.getTypes()) {
+            command.addClassProgramData(
+                    classes.getBytes(type), new PathOrigin(classes.getFile(type).toPath()));
+        }
+        D8.run(command.build());
+
+        assertEquals(full.getFiles().size(), merged.getFiles().size());
+        for (int i = 0; i < full.getFiles().size(); i++) {
+            byte[] expected = full.getFiles().get(i);
+            assertArrayEquals(DexFiles.fileName(i), expected, merged.getFiles().get(i));
+        }
+    }
+
+    private List<String> update() throws Exception {
+        return update(new ArrayList<>()).getTypes();
+    }
+
+    // Compiles the sources from scratch and brings the archives up to date with them.
+    private CompiledClasses update(List<Path> dexFiles) throws Exception {
+        delete(classesDir);
+        StringWriter errors = new StringWriter();
+        JavaCompiler javac =
+                new JavaCompiler(new PrintWriter(new StringWriter()), new PrintWriter(errors));
+        boolean success =
+                javac.compile("-8", "-proc:none", "-d", classesDir.getPath(), sourceDir.getPath());
+        assertTrue(errors.toString(), success);
+
+        File stateFile = new File(temp.getRoot(), "state");
+        CompiledClasses classes = new CompiledClasses(classesDir, stateFile);
+        List<String> types = new ArrayList<>();
+        collect(classesDir, "", types);
+        Collections.sort(types);
+        classes.setTypes(types);
+        dexFiles.clear();
+        dexFiles.addAll(archives.update(classes, types, this::newD8Command));
+        return classes;
+    }
+
+    private D8Command.Builder newD8Command() {
+        return D8Command.builder().setMinApiLevel(MIN_API).addLibraryFiles(Paths.get(ANDROID_JAR));
+    }
+
+    private static boolean hasDexFile(List<Path> dexFiles, String name) {
+        for (Path dexFile : dexFiles) {
+            if (dexFile.getFileName().toString().equals(name)) return true;
+        }
+        return false;
+    }
+
+    private static void collect(File dir, String prefix, List<String> types) {
+        for (File file : dir.listFiles()) {
+            String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                collect(file, name + "/", types);
+            } else if (name.endsWith(".class")) {
+                types.add(name.substring(0, name.length() - ".class".length()));
+            }
+        }
+    }
+
+    private String readSource(String path) throws IOException {
+        return new String(
+                Files.readAllBytes(new File(sourceDir, path).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(sourceDir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,107 @@
+package org.xedox.apkbuilder.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DexFilesTest {
+    // More than nine, so classes10.dex and classes11.dex have to sort after classes9.dex.
+    private static final int FILES = 11;
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    private File dexDir;
+    private DexFiles dexFiles;
+
+    @Before
+    public void createDexFiles() {
+        dexDir = new File(temp.getRoot(), "dex");
+        dexFiles = new DexFiles(dexDir);
+    }
+
+    @Test
+    public void keepsPublishedFilesInMemory() throws IOException {
+        List<byte[]> published = publish(FILES);
+
+        List<byte[]> files = dexFiles.get();
+        assertEquals(FILES, files.size());
+        for (int i = 0; i < FILES; i++) {
+            assertSame(published.get(i), files.get(i));
+            File file = new File(dexDir, DexFiles.fileName(i));
+            assertArrayEquals(published.get(i), Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    @Test
+    public void readsDexDirInApkOrderAfterRelease() throws IOException {
+        List<byte[]> published = publish(FILES);
+        dexFiles.release();
+
+        List<byte[]> files = dexFiles.get();
+        assertEquals(FILES, files.size());
+        for (int i = 0; i < FILES; i++) {
+            assertArrayEquals(DexFiles.fileName(i), published.get(i), files.get(i));
+        }
+    }
+
+    @Test
+    public void readsDexDirOnceItChanges() throws IOException {
+        publish(FILES);
+        // As when the build cache restores dexDir from another build.
+        byte[] restored = {9, 9, 9, 9, 9, 9, 9, 9};
+        Files.write(new File(dexDir, DexFiles.fileName(1)).toPath(), restored);
+
+        List<byte[]> files = dexFiles.get();
+        assertEquals(FILES, files.size());
+        assertArrayEquals(restored, files.get(1));
+    }
+
+    @Test
+    public void publishReplacesOldFiles() throws IOException {
+        publish(FILES);
+        List<byte[]> published = publish(2);
+
+        String[] names = dexDir.list((dir, name) -> name.endsWith(".dex"));
+        Arrays.sort(names);
+        assertArrayEquals(new String[] {"classes.dex", "classes2.dex"}, names);
+        dexFiles.release();
+        List<byte[]> files = dexFiles.get();
+        assertEquals(2, files.size());
+        assertArrayEquals(published.get(1), files.get(1));
+    }
+
+    @Test
+    public void appendAddsAfterTheLastFile() {
+        DexFiles.Consumer consumer = dexFiles.newConsumer();
+        byte[] first = {1};
+        byte[] second = {2};
+        consumer.append(first);
+        consumer.append(second);
+        assertEquals(Arrays.asList(first, second), consumer.getFiles());
+    }
+
+    // Publishes count distinct files of different sizes.
+    private List<byte[]> publish(int count) throws IOException {
+        DexFiles.Consumer consumer = dexFiles.newConsumer();
+        List<byte[]> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] dex = new byte[i + 1];
+            Arrays.fill(dex, (byte) (i + 1));
+            consumer.append(dex);
+            files.add(dex);
+        }
+        dexFiles.publish(consumer);
+        return files;
+    }
+}
@@ -0,0 +1,157 @@
+package org.xedox.apkbuilder.util;
+
+import com.android.tools.r8.D8;
+import com.android.tools.r8.D8Command;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.xedox.javac.JavaCompiler;
+
+/**
+ * Cold dexing time of {@link DexArchiveCache} with 1 to 8 workers, each sample into an empty
+ * archive directory and including the final merge. The classes are generated, a few hundred
+ * packages of small classes with lambdas and nested classes. Run with {@code gradle
+ * :apkbuilder:dexShardingBenchmark -PandroidJar=<android.jar>}, optionally with {@code
+ * -Pclasses=N} top-level classes and {@code -Pruns=N}.
+ */
+public final class DexShardingBenchmark {
+    private static final int MIN_API = 21;
+    private static final int MAX_WORKERS = 8;
+    private static final int CLASSES_PER_PACKAGE = 20;
+
+    private DexShardingBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || args[0].isEmpty()) {
+            throw new IllegalArgumentException("Usage: <android.jar> [classes] [runs]");
+        }
+        Path androidJar = Paths.get(args[0]);
+        int classCount = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        File root = Files.createTempDirectory("dex-sharding").toFile();
+        try {
+            CompiledClasses classes = compile(root, classCount);
+            List<String> types = classes.getTypes();
+            System.out.printf(
+                    "%d class files, %d cores%n",
+                    types.size(), Runtime.getRuntime().availableProcessors());
+
+            long single = 0;
+            for (int workers = 1; workers <= MAX_WORKERS; workers++) {
+                long[] millis = new long[runs];
+                int shards = 0;
+                for (int run = 0; run < runs; run++) {
+                    File dir = new File(root, "archives-" + workers + "-" + run);
+                    DexArchiveCache archives = new DexArchiveCache(dir, "benchmark");
+                    archives.setWorkers(workers);
+                    long start = System.nanoTime();
+                    List<Path> dexFiles =
+                            archives.update(classes, types, () -> newD8Command(androidJar));
+                    D8.run(
+                            newD8Command(androidJar)
+                                    .addProgramFiles(dexFiles)
+                                    .setProgramConsumer(new DexFiles.Consumer())
+                                    .build());
+                    millis[run] = (System.nanoTime() - start) / 1_000_000;
+                    shards = archives.getShards();
+                    delete(dir);
+                }
+                Arrays.sort(millis);
+                long median = millis[runs / 2];
+                if (workers == 1) single = median;
+                System.out.printf(
+                        "%d workers, %d shards: median %6d ms, min %6d ms, speedup %.2fx%n",
+                        workers, shards, median, millis[0], (double) single / median);
+            }
+        } finally {
+            delete(root);
+        }
+    }
+
+    private static D8Command.Builder newD8Command(Path androidJar) {
+        return D8Command.builder().setMinApiLevel(MIN_API).addLibraryFiles(androidJar);
+    }
+
+    private static CompiledClasses compile(File root, int classCount) throws IOException {
+        File sourceDir = new File(root, "src");
+        File classesDir = new File(root, "classes");
+        int packages = (classCount + CLASSES_PER_PACKAGE - 1) / CLASSES_PER_PACKAGE;
+        for (int p = 0; p < packages; p++) {
+            for (int c = 0; c < CLASSES_PER_PACKAGE; c++) {
+                File file = new File(sourceDir, "p" + p + "/C" + c + ".java");
+                file.getParentFile().mkdirs();
+                Files.write(file.toPath(), source(p, c, packages).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        StringWriter errors = new StringWriter();
+        JavaCompiler javac =
+                new JavaCompiler(new PrintWriter(new StringWriter()), new PrintWriter(errors));
+        if (!javac.compile(
+                "-8", "-proc:none", "-d", classesDir.getPath(), sourceDir.getPath())) {
+            throw new IllegalStateException(errors.toString());
+        }
+
+        CompiledClasses classes = new CompiledClasses(classesDir, new File(root, "state"));
+        List<String> types = new ArrayList<>();
+        collect(classesDir, "", classes, types);
+        classes.setTypes(types);
+        return classes;
+    }
+
+    private static String source(int p, int c, int packages) {
+        String next = "p" + ((p + 1) % packages) + ".C" + ((c + 1) % CLASSES_PER_PACKAGE);
+        return "package p" + p + ";\n"
+                + "import java.util.*;\n"
+                + "public class C" + c + " {\n"
+                + "    private final List<String> names = new ArrayList<>();\n"
+                + "    public int next(String key) {\n"
+                + "        Runnable r = () -> names.add(key);\n"
+                + "        r.run();\n"
+                + "        names.sort(Comparator.comparing(String::length));\n"
+                + "        switch (key) {\n"
+                + "            case \"a\": return new " + next + "().hashCode();\n"
+                + "            case \"b\": return new Inner().value();\n"
+                + "            default: return names.size();\n"
+                + "        }\n"
+                + "    }\n"
+                + "    class Inner {\n"
+                + "        int value() { return names.size() * 31; }\n"
+                + "    }\n"
+                + "}\n";
+    }
+
+    private static void collect(
+            File dir, String prefix, CompiledClasses classes, List<String> types)
+            throws IOException {
+        for (File file : dir.listFiles()) {
+            String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                collect(file, name + "/", classes, types);
+            } else if (name.endsWith(".class")) {
+                String type = name.substring(0, name.length() - ".class".length());
+                classes.put(type, Files.readAllBytes(file.toPath()));
+                types.add(type);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -877,6 +877,12 @@ public class Parser
     }
 
     public static final void initTables() throws IOException {
+        if (!ParserTables.load()) {
+            initRscTables();
+        }
+    }
+
+    static void initRscTables() throws IOException {
         String prefix = "parser";
         int i = 0;
         i++;
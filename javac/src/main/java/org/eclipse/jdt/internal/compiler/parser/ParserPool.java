@@ -0,0 +1,157 @@
+package org.eclipse.jdt.internal.compiler.parser;
+
+import java.util.Arrays;
+import org.eclipse.jdt.internal.compiler.ast.ASTNode;
+import org.eclipse.jdt.internal.compiler.ast.Annotation;
+import org.eclipse.jdt.internal.compiler.ast.Expression;
+import org.eclipse.jdt.internal.compiler.problem.ProblemReporter;
+
+/**
+ * Keeps the stacks of finished parsers per thread, so the next parser on that thread starts with
+ * the capacity earlier ones grew to instead of regrowing it in small increments. A parser holds
+ * its compiler's reporter, options and scanner, so it is the stacks that carry over, not the
+ * parser itself. Stacks longer than {@link #MAX_RETAINED_LENGTH} are dropped.
+ */
+public final class ParserPool {
+    static final int MAX_RETAINED_LENGTH = 4096;
+
+    private static final ThreadLocal<Stacks> IDLE = new ThreadLocal<>();
+
+    private ParserPool() {}
+
+    /** A new parser, with the stacks last released on this thread. */
+    public static Parser acquire(ProblemReporter problemReporter, boolean optimizeStringLiterals) {
+        Parser parser = new Parser(problemReporter, optimizeStringLiterals);
+        adopt(parser);
+        return parser;
+    }
+
+    /** Gives {@code parser} the stacks last released on this thread, if any. */
+    public static void adopt(Parser parser) {
+        Stacks stacks = IDLE.get();
+        if (stacks != null) {
+            IDLE.remove();
+            stacks.giveTo(parser);
+        }
+    }
+
+    /** Takes the stacks of a parser that will not be used again, for the next one on this thread. */
+    public static void release(Parser parser) {
+        IDLE.set(new Stacks(parser, IDLE.get()));
+    }
+
+    private static final class Stacks {
+        final int[] stack;
+        final ASTNode[] astStack;
+        final int[] astLengthStack;
+        final Expression[] expressionStack;
+        final int[] expressionLengthStack;
+        final char[][] identifierStack;
+        final long[] identifierPositionStack;
+        final int[] identifierLengthStack;
+        final int[] intStack;
+        final Annotation[] typeAnnotationStack;
+        final int[] typeAnnotationLengthStack;
+        final ASTNode[] genericsStack;
+        final int[] genericsLengthStack;
+        final int[] genericsIdentifiersLengthStack;
+        final int[] nestedMethod;
+        final int[] variablesCounter;
+        final int[] realBlockStack;
+        final ASTNode[] noAstNodes;
+        final Expression[] noExpressions;
+
+        // Keeps whichever of the two has the larger stack, for each stack.
+        Stacks(Parser p, Stacks previous) {
+            Stacks q = previous;
+            stack = larger(p.stack, q != null ? q.stack : null);
+            astStack = clear(larger(p.astStack, q != null ? q.astStack : null));
+            astLengthStack = larger(p.astLengthStack, q != null ? q.astLengthStack : null);
+            expressionStack = clear(larger(p.expressionStack, q != null ? q.expressionStack : null));
+            expressionLengthStack =
+                    larger(p.expressionLengthStack, q != null ? q.expressionLengthStack : null);
+            // Grown together, so they are kept together.
+            boolean identifiers =
+                    q == null || length(p.identifierStack) >= length(q.identifierStack);
+            identifierStack = clear(retain(identifiers ? p.identifierStack : q.identifierStack));
+            identifierPositionStack =
+                    identifierStack == null
+                            ? null
+                            : identifiers ? p.identifierPositionStack : q.identifierPositionStack;
+            identifierLengthStack =
+                    larger(p.identifierLengthStack, q != null ? q.identifierLengthStack : null);
+            intStack = larger(p.intStack, q != null ? q.intStack : null);
+            typeAnnotationStack =
+                    clear(larger(p.typeAnnotationStack, q != null ? q.typeAnnotationStack : null));
+            typeAnnotationLengthStack =
+                    larger(
+                            p.typeAnnotationLengthStack,
+                            q != null ? q.typeAnnotationLengthStack : null);
+            genericsStack = clear(larger(p.genericsStack, q != null ? q.genericsStack : null));
+            genericsLengthStack =
+                    larger(p.genericsLengthStack, q != null ? q.genericsLengthStack : null);
+            genericsIdentifiersLengthStack =
+                    larger(
+                            p.genericsIdentifiersLengthStack,
+                            q != null ? q.genericsIdentifiersLengthStack : null);
+            boolean nested = q == null || length(p.nestedMethod) >= length(q.nestedMethod);
+            nestedMethod = retain(nested ? p.nestedMethod : q.nestedMethod);
+            variablesCounter =
+                    nestedMethod == null ? null : nested ? p.variablesCounter : q.variablesCounter;
+            realBlockStack = larger(p.realBlockStack, q != null ? q.realBlockStack : null);
+            // Blank arrays initialize() copies over the AST stacks, never written to.
+            noAstNodes = larger(p.noAstNodes, q != null ? q.noAstNodes : null);
+            noExpressions = larger(p.noExpressions, q != null ? q.noExpressions : null);
+        }
+
+        void giveTo(Parser p) {
+            if (stack != null) p.stack = stack;
+            if (astStack != null) p.astStack = astStack;
+            if (astLengthStack != null) p.astLengthStack = astLengthStack;
+            if (expressionStack != null) p.expressionStack = expressionStack;
+            if (expressionLengthStack != null) p.expressionLengthStack = expressionLengthStack;
+            if (identifierStack != null) {
+                p.identifierStack = identifierStack;
+                p.identifierPositionStack = identifierPositionStack;
+            }
+            if (identifierLengthStack != null) p.identifierLengthStack = identifierLengthStack;
+            if (intStack != null) p.intStack = intStack;
+            if (typeAnnotationStack != null) p.typeAnnotationStack = typeAnnotationStack;
+            if (typeAnnotationLengthStack != null) {
+                p.typeAnnotationLengthStack = typeAnnotationLengthStack;
+            }
+            if (genericsStack != null) p.genericsStack = genericsStack;
+            if (genericsLengthStack != null) p.genericsLengthStack = genericsLengthStack;
+            if (genericsIdentifiersLengthStack != null) {
+                p.genericsIdentifiersLengthStack = genericsIdentifiersLengthStack;
+            }
+            if (nestedMethod != null) {
+                p.nestedMethod = nestedMethod;
+                p.variablesCounter = variablesCounter;
+            }
+            if (realBlockStack != null) p.realBlockStack = realBlockStack;
+            if (noAstNodes != null) p.noAstNodes = noAstNodes;
+            if (noExpressions != null) p.noExpressions = noExpressions;
+        }
+
+        private static <T> T larger(T array, T other) {
+            if (other == null || length(array) >= length(other)) return retain(array);
+            return retain(other);
+        }
+
+        private static <T> T retain(T array) {
+            int length = length(array);
+            return length > 0 && length <= MAX_RETAINED_LENGTH ? array : null;
+        }
+
+        private static int length(Object array) {
+            return array == null ? 0 : java.lang.reflect.Array.getLength(array);
+        }
+
+        // Drops the AST of the last unit so it can be collected.
+        private static <T> T[] clear(T[] array) {
+            if (array != null) Arrays.fill(array, null);
+            return array;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package org.eclipse.jdt.internal.compiler.parser;
+
+import java.io.BufferedInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import org.eclipse.jdt.internal.compiler.util.Util;
+
+/**
+ * All of {@link Parser}'s tables packed into the single {@code parser.tables} resource, so a cold
+ * start reads one stream and decodes it in bulk instead of reading and converting some twenty
+ * {@code parserN.rsc} files. The resource is produced at build time by {@link #main}; when it is
+ * missing or was built for another grammar the parser falls back to the {@code .rsc} files.
+ */
+public final class ParserTables {
+    static final String RESOURCE = "parser.tables";
+
+    private static final int MAGIC = 0x45434a50; // ECJP
+    private static final int FORMAT = 1;
+
+    private ParserTables() {}
+
+    /** Writes the tables the parser loaded from its {@code .rsc} files to {@code args[0]}. */
+    public static void main(String[] args) throws IOException {
+        File file = new File(args[0]);
+        file.getParentFile().mkdirs();
+        Parser.initRscTables();
+        try (OutputStream out = new FileOutputStream(file)) {
+            write(out);
+        }
+    }
+
+    static void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        writeGrammar(out);
+        for (char[] table : charTables()) {
+            writeChars(out, table);
+        }
+        out.writeInt(Parser.check_table.length);
+        for (short value : Parser.check_table) out.writeShort(value);
+        out.writeInt(Parser.rhs.length);
+        out.write(Parser.rhs);
+        out.writeInt(Parser.rules_compliance.length);
+        for (long value : Parser.rules_compliance) out.writeLong(value);
+        out.writeInt(Parser.reverse_index.length);
+        for (int value : Parser.reverse_index) out.writeInt(value);
+        writeStrings(out, Parser.name);
+        writeStrings(out, Parser.readableName);
+        out.flush();
+    }
+
+    /** Sets the parser's tables from the resource, or returns false if it cannot be used. */
+    static boolean load() {
+        byte[] bytes;
+        try (InputStream stream = Parser.class.getResourceAsStream(RESOURCE)) {
+            if (stream == null) return false;
+            bytes = Util.getInputStreamAsByteArray(new BufferedInputStream(stream));
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            return decode(ByteBuffer.wrap(bytes));
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            // Truncated resource; the .rsc files overwrite anything already set.
+            return false;
+        }
+    }
+
+    private static boolean decode(ByteBuffer in) {
+        if (in.getInt() != MAGIC || in.getInt() != FORMAT || !sameGrammar(in)) return false;
+
+        Parser.lhs = readChars(in);
+        Parser.asb = readChars(in);
+        Parser.asr = readChars(in);
+        Parser.nasb = readChars(in);
+        Parser.nasr = readChars(in);
+        Parser.terminal_index = readChars(in);
+        Parser.non_terminal_index = readChars(in);
+        Parser.term_action = readChars(in);
+        Parser.scope_prefix = readChars(in);
+        Parser.scope_suffix = readChars(in);
+        Parser.scope_lhs = readChars(in);
+        Parser.scope_state_set = readChars(in);
+        Parser.scope_rhs = readChars(in);
+        Parser.scope_state = readChars(in);
+        Parser.in_symb = readChars(in);
+        Parser.term_check = readChars(in);
+        Parser.scope_la = readChars(in);
+        Parser.recovery_templates_index = readChars(in);
+        Parser.recovery_templates = readChars(in);
+        Parser.statements_recovery_filter = readChars(in);
+
+        short[] checkTable = new short[in.getInt()];
+        in.asShortBuffer().get(checkTable);
+        in.position(in.position() + checkTable.length * 2);
+        Parser.check_table = checkTable;
+
+        byte[] rhs = new byte[in.getInt()];
+        in.get(rhs);
+        Parser.rhs = rhs;
+
+        long[] rulesCompliance = new long[in.getInt()];
+        in.asLongBuffer().get(rulesCompliance);
+        in.position(in.position() + rulesCompliance.length * 8);
+        Parser.rules_compliance = rulesCompliance;
+
+        int[] reverseIndex = new int[in.getInt()];
+        in.asIntBuffer().get(reverseIndex);
+        in.position(in.position() + reverseIndex.length * 4);
+        Parser.reverse_index = reverseIndex;
+
+        Parser.name = readStrings(in);
+        Parser.readableName = readStrings(in);
+        Parser.base_action = Parser.lhs;
+        return true;
+    }
+
+    // Same order as decode().
+    private static char[][] charTables() {
+        return new char[][] {
+            Parser.lhs,
+            Parser.asb,
+            Parser.asr,
+            Parser.nasb,
+            Parser.nasr,
+            Parser.terminal_index,
+            Parser.non_terminal_index,
+            Parser.term_action,
+            Parser.scope_prefix,
+            Parser.scope_suffix,
+            Parser.scope_lhs,
+            Parser.scope_state_set,
+            Parser.scope_rhs,
+            Parser.scope_state,
+            Parser.in_symb,
+            Parser.term_check,
+            Parser.scope_la,
+            Parser.recovery_templates_index,
+            Parser.recovery_templates,
+            Parser.statements_recovery_filter
+        };
+    }
+
+    // Tables generated for another grammar would parse garbage.
+    private static void writeGrammar(DataOutputStream out) throws IOException {
+        out.writeInt(ParserBasicInformation.NUM_STATES);
+        out.writeInt(ParserBasicInformation.NUM_RULES);
+        out.writeInt(ParserBasicInformation.NUM_SYMBOLS);
+        out.writeInt(ParserBasicInformation.LA_STATE_OFFSET);
+    }
+
+    private static boolean sameGrammar(ByteBuffer in) {
+        return in.getInt() == ParserBasicInformation.NUM_STATES
+                && in.getInt() == ParserBasicInformation.NUM_RULES
+                && in.getInt() == ParserBasicInformation.NUM_SYMBOLS
+                && in.getInt() == ParserBasicInformation.LA_STATE_OFFSET;
+    }
+
+    private static void writeChars(DataOutputStream out, char[] chars) throws IOException {
+        out.writeInt(chars.length);
+        for (char c : chars) out.writeChar(c);
+    }
+
+    private static char[] readChars(ByteBuffer in) {
+        char[] chars = new char[in.getInt()];
+        in.asCharBuffer().get(chars);
+        in.position(in.position() + chars.length * 2);
+        return chars;
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String s : strings) {
+            if (s == null) {
+                out.writeInt(-1);
+            } else {
+                writeChars(out, s.toCharArray());
+            }
+        }
+    }
+
+    private static String[] readStrings(ByteBuffer in) {
+        String[] strings = new String[in.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            int length = in.getInt(in.position());
+            if (length < 0) {
+                in.getInt();
+            } else {
+                strings[i] = new String(readChars(in));
+            }
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,208 @@
+package org.xedox.javac;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileConstants;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
+import org.eclipse.jdt.internal.compiler.env.ClassSignature;
+import org.eclipse.jdt.internal.compiler.env.EnumConstantSignature;
+import org.eclipse.jdt.internal.compiler.env.IBinaryAnnotation;
+import org.eclipse.jdt.internal.compiler.env.IBinaryElementValuePair;
+import org.eclipse.jdt.internal.compiler.env.IBinaryField;
+import org.eclipse.jdt.internal.compiler.env.IBinaryMethod;
+import org.eclipse.jdt.internal.compiler.env.IBinaryNestedType;
+import org.eclipse.jdt.internal.compiler.env.IRecordComponent;
+import org.eclipse.jdt.internal.compiler.impl.Constant;
+
+/**
+ * Hashes what other compilation units can observe of a class: its modifiers, supertypes, member
+ * types, annotations, and the signatures, constants and annotations of its non-private members.
+ * Method bodies, private members and synthetic members such as lambdas and bridges do not
+ * contribute, so editing an implementation leaves the hash unchanged.
+ */
+final class AbiHasher {
+    // Flags that only affect how a method body runs.
+    private static final int IMPLEMENTATION_FLAGS =
+            ClassFileConstants.AccSynchronized
+                    | ClassFileConstants.AccNative
+                    | ClassFileConstants.AccStrictfp;
+
+    private AbiHasher() {}
+
+    static String hash(String fileName, byte[] classBytes) {
+        StringBuilder abi = new StringBuilder();
+        try {
+            describe(new ClassFileReader(classBytes, fileName.toCharArray(), true), abi);
+        } catch (ClassFormatException | RuntimeException e) {
+            // Unreadable class file, so any change has to count as an API change.
+            return IncrementalCompiler.toHex(digest(classBytes));
+        }
+        return IncrementalCompiler.toHex(digest(abi.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void describe(ClassFileReader type, StringBuilder abi) {
+        abi.append("type ").append(type.getModifiers()).append(' ').append(type.getName());
+        abi.append("\nsuper ").append(str(type.getSuperclassName()));
+        abi.append("\ninterfaces ").append(join(type.getInterfaceNames()));
+        abi.append("\npermits ").append(join(type.getPermittedSubtypesNames()));
+        abi.append("\nsignature ").append(str(type.getGenericSignature()));
+        abi.append("\nenclosing ").append(str(type.getEnclosingTypeName()));
+        abi.append('\n');
+        annotations(type.getAnnotations(), abi);
+
+        // A private type is only visible inside its own compilation unit.
+        if ((type.getModifiers() & ClassFileConstants.AccPrivate) != 0) return;
+
+        List<String> members = new ArrayList<>();
+        IBinaryNestedType[] memberTypes = type.getMemberTypes();
+        if (memberTypes != null) {
+            for (IBinaryNestedType memberType : memberTypes) {
+                if ((memberType.getModifiers() & ClassFileConstants.AccPrivate) != 0) continue;
+                members.add("member " + memberType.getModifiers() + " " + str(memberType.getName()));
+            }
+        }
+
+        IRecordComponent[] components = type.getRecordComponents();
+        if (components != null) {
+            for (IRecordComponent component : components) {
+                StringBuilder sb = new StringBuilder("component ");
+                sb.append(str(component.getName())).append(' ');
+                sb.append(str(component.getTypeName())).append(' ');
+                sb.append(str(component.getGenericSignature())).append('\n');
+                annotations(component.getAnnotations(), sb);
+                members.add(sb.toString());
+            }
+        }
+
+        IBinaryField[] fields = type.getFields();
+        if (fields != null) {
+            for (IBinaryField field : fields) {
+                if (isHidden(field.getModifiers())) continue;
+                StringBuilder sb = new StringBuilder("field ");
+                sb.append(field.getModifiers()).append(' ');
+                sb.append(str(field.getName())).append(' ');
+                sb.append(str(field.getTypeName())).append(' ');
+                sb.append(str(field.getGenericSignature()));
+                // Constants are inlined into the classes that read them.
+                Constant constant = field.getConstant();
+                if (constant != null && constant != Constant.NotAConstant) {
+                    sb.append(" = ").append(constant(constant));
+                }
+                sb.append('\n');
+                annotations(field.getAnnotations(), sb);
+                members.add(sb.toString());
+            }
+        }
+
+        IBinaryMethod[] methods = type.getMethods();
+        if (methods != null) {
+            for (IBinaryMethod method : methods) {
+                if (isHidden(method.getModifiers()) || method.isClinit()) continue;
+                StringBuilder sb = new StringBuilder("method ");
+                sb.append(method.getModifiers() & ~IMPLEMENTATION_FLAGS).append(' ');
+                sb.append(str(method.getSelector()));
+                sb.append(str(method.getMethodDescriptor())).append(' ');
+                sb.append(str(method.getGenericSignature()));
+                sb.append(" throws ").append(join(method.getExceptionTypeNames()));
+                Object defaultValue = method.getDefaultValue();
+                if (defaultValue != null) {
+                    sb.append(" default ");
+                    value(defaultValue, sb);
+                }
+                sb.append('\n');
+                annotations(method.getAnnotations(), sb);
+                int parameters = method.getAnnotatedParametersCount();
+                for (int i = 0; i < parameters; i++) {
+                    sb.append("param ").append(i).append('\n');
+                    annotations(method.getParameterAnnotations(i, type.getFileName()), sb);
+                }
+                members.add(sb.toString());
+            }
+        }
+
+        // javac and ECJ are free to reorder members, which is not an API change.
+        Collections.sort(members);
+        for (String member : members) {
+            abi.append(member).append('\n');
+        }
+    }
+
+    private static boolean isHidden(int modifiers) {
+        return (modifiers & (ClassFileConstants.AccPrivate | ClassFileConstants.AccSynthetic))
+                != 0;
+    }
+
+    private static void annotations(IBinaryAnnotation[] annotations, StringBuilder sb) {
+        if (annotations == null) return;
+        for (IBinaryAnnotation annotation : annotations) {
+            sb.append('@');
+            annotation(annotation, sb);
+            sb.append('\n');
+        }
+    }
+
+    private static void annotation(IBinaryAnnotation annotation, StringBuilder sb) {
+        sb.append(str(annotation.getTypeName())).append('(');
+        IBinaryElementValuePair[] pairs = annotation.getElementValuePairs();
+        if (pairs != null) {
+            for (IBinaryElementValuePair pair : pairs) {
+                sb.append(str(pair.getName())).append('=');
+                value(pair.getValue(), sb);
+                sb.append(',');
+            }
+        }
+        sb.append(')');
+    }
+
+    private static void value(Object value, StringBuilder sb) {
+        if (value instanceof Constant) {
+            sb.append(constant((Constant) value));
+        } else if (value instanceof IBinaryAnnotation) {
+            sb.append('@');
+            annotation((IBinaryAnnotation) value, sb);
+        } else if (value instanceof ClassSignature) {
+            sb.append(str(((ClassSignature) value).getTypeName())).append(".class");
+        } else if (value instanceof EnumConstantSignature) {
+            EnumConstantSignature constant = (EnumConstantSignature) value;
+            sb.append(str(constant.getTypeName()))
+                    .append('.')
+                    .append(str(constant.getEnumConstantName()));
+        } else if (value instanceof Object[]) {
+            sb.append('{');
+            for (Object element : (Object[]) value) {
+                value(element, sb);
+                sb.append(',');
+            }
+            sb.append('}');
+        } else {
+            sb.append(value);
+        }
+    }
+
+    private static String constant(Constant constant) {
+        return constant.typeName() + ":" + constant.stringValue();
+    }
+
+    private static String str(char[] chars) {
+        return chars == null ? "" : new String(chars);
+    }
+
+    private static String join(char[][] names) {
+        if (names == null) return "";
+        StringBuilder sb = new StringBuilder();
+        for (char[] name : names) {
+            sb.append(name).append(',');
+        }
+        return sb.toString();
+    }
+
+    private static byte[] digest(byte[] bytes) {
+        MessageDigest digest = IncrementalCompiler.newDigest();
+        digest.update(bytes);
+        return digest.digest();
+    }
+}
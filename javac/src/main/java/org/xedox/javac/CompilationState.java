@@ -0,0 +1,151 @@
+package org.xedox.javac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * What the previous compilation produced: a fingerprint, the emitted types and the referenced
+ * names of every source file, and a hash of every emitted type.
+ *
+ * <p>The state lives next to the class files it describes and is cached with them, so it is
+ * written with sorted keys, without a date and with source paths relative to its own directory.
+ */
+final class CompilationState {
+    private static final String OPTIONS = "options";
+    private static final String SOURCE = "src|";
+    private static final String TYPES = "types|";
+    private static final String NAMES = "names|";
+    private static final String ROOTS = "roots|";
+    private static final String HASH = "hash|";
+
+    static final class Source {
+        String fingerprint;
+        List<String> types = new ArrayList<>();
+        Set<String> names = new LinkedHashSet<>();
+        Set<String> roots = new LinkedHashSet<>();
+    }
+
+    String optionsKey;
+    final Map<String, Source> sources = new TreeMap<>();
+    final Map<String, String> typeHashes = new HashMap<>();
+
+    static CompilationState load(File file) {
+        CompilationState state = new CompilationState();
+        if (!file.isFile()) return state;
+        Path base = baseOf(file);
+
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            return state;
+        }
+
+        state.optionsKey = props.getProperty(OPTIONS);
+        for (String key : props.stringPropertyNames()) {
+            String value = props.getProperty(key);
+            if (key.startsWith(SOURCE)) {
+                state.source(base, key, SOURCE).fingerprint = value;
+            } else if (key.startsWith(TYPES)) {
+                state.source(base, key, TYPES).types.addAll(split(value));
+            } else if (key.startsWith(NAMES)) {
+                state.source(base, key, NAMES).names.addAll(split(value));
+            } else if (key.startsWith(ROOTS)) {
+                state.source(base, key, ROOTS).roots.addAll(split(value));
+            } else if (key.startsWith(HASH)) {
+                state.typeHashes.put(key.substring(HASH.length()), value);
+            }
+        }
+        // An entry without a fingerprint is a truncated file; recompile that source.
+        for (Source source : state.sources.values()) {
+            if (source.fingerprint == null) source.fingerprint = "";
+        }
+        return state;
+    }
+
+    void save(File file) throws IOException {
+        Path base = baseOf(file);
+        Properties props = new Properties();
+        if (optionsKey != null) props.setProperty(OPTIONS, optionsKey);
+        for (Map.Entry<String, Source> entry : sources.entrySet()) {
+            String path = relativize(base, entry.getKey());
+            Source source = entry.getValue();
+            props.setProperty(SOURCE + path, source.fingerprint);
+            props.setProperty(TYPES + path, String.join(",", source.types));
+            props.setProperty(NAMES + path, String.join(",", source.names));
+            props.setProperty(ROOTS + path, String.join(",", source.roots));
+        }
+        for (Map.Entry<String, String> entry : typeHashes.entrySet()) {
+            props.setProperty(HASH + entry.getKey(), entry.getValue());
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) parent.mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        // Properties.store escapes, but writes a date and keys in hash order.
+        ByteArrayOutputStream escaped = new ByteArrayOutputStream();
+        props.store(escaped, null);
+        List<String> lines = new ArrayList<>();
+        for (String line : escaped.toString("ISO-8859-1").split("\\R")) {
+            if (!line.isEmpty() && !line.startsWith("#")) lines.add(line);
+        }
+        Collections.sort(lines);
+        try (Writer out =
+                new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.ISO_8859_1)) {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Path baseOf(File file) {
+        return file.getAbsoluteFile().toPath().normalize().getParent();
+    }
+
+    private static String relativize(Path base, String path) {
+        if (base == null) return path;
+        return base.relativize(Paths.get(path)).toString().replace(File.separatorChar, '/');
+    }
+
+    private static String resolve(Path base, String path) {
+        if (base == null) return path;
+        return base.resolve(path).normalize().toString();
+    }
+
+    Source source(String path) {
+        return sources.computeIfAbsent(path, k -> new Source());
+    }
+
+    private Source source(Path base, String key, String prefix) {
+        return source(resolve(base, key.substring(prefix.length())));
+    }
+
+    static Collection<String> split(String value) {
+        if (value == null || value.isEmpty()) return new ArrayList<>();
+        return Arrays.asList(value.split(","));
+    }
+}
@@ -0,0 +1,191 @@
+package org.xedox.javac;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+import org.eclipse.jdt.core.compiler.CompilationProgress;
+import org.eclipse.jdt.core.compiler.IProblem;
+import org.eclipse.jdt.internal.compiler.ClassFile;
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+import org.eclipse.jdt.internal.compiler.ICompilerRequestor;
+import org.eclipse.jdt.internal.compiler.batch.BatchCompilerRequestor;
+import org.eclipse.jdt.internal.compiler.batch.CompilationUnit;
+import org.eclipse.jdt.internal.compiler.batch.FileSystem;
+import org.eclipse.jdt.internal.compiler.batch.Main;
+import org.eclipse.jdt.internal.compiler.parser.ParserPool;
+
+/** ECJ batch compiler with the hooks {@link JavaCompiler} exposes. */
+final class CompilerMain extends Main {
+    private final JavaCompiler.ResultListener resultListener;
+    private final JavaCompiler.ClassConsumer classConsumer;
+    private final JavaCompiler.DiagnosticListener diagnosticListener;
+    private final boolean writeClassFiles;
+    private final CompilerSession session;
+    private final int workers;
+    private final int maxErrors;
+
+    CompilerMain(JavaCompiler javac) {
+        super(
+                javac.getOutputWriter(),
+                javac.getErrorWriter(),
+                javac.isSystemExitEnabled(),
+                javac.getErrorCodes(),
+                javac.getProgressMonitor());
+        this.resultListener = javac.getResultListener();
+        this.classConsumer = javac.getClassConsumer();
+        this.diagnosticListener = javac.getDiagnosticListener();
+        this.writeClassFiles = javac.isWriteClassFiles();
+        this.session = javac.getSession();
+        this.workers = javac.getWorkers();
+        this.maxErrors = javac.getMaxErrors();
+        if (maxErrors > 0) {
+            // The Compiler checks for cancellation between units.
+            progress = new ErrorLimit(progress);
+        }
+    }
+
+    @Override
+    public FileSystem getLibraryAccess() {
+        if (session != null) {
+            session.attach(checkedClasspaths);
+        }
+        return super.getLibraryAccess();
+    }
+
+    // Called once the Compiler exists but before any unit is parsed.
+    @Override
+    public CompilationUnit[] getCompilationUnits() {
+        if (workers > 0) {
+            batchCompiler.useSingleThread = workers == 1;
+        }
+        if (resultListener != null) {
+            // Makes ECJ record the names each unit looked up, for dependency tracking.
+            batchCompiler.options.produceReferenceInfo = true;
+        }
+        CompilationUnit[] units = super.getCompilationUnits();
+        if (!batchCompiler.useSingleThread && units.length >= PrefetchingParser.MIN_UNITS) {
+            PrefetchingParser parser = new PrefetchingParser(batchCompiler);
+            batchCompiler.parser = parser;
+            ParserPool.adopt(parser);
+            prefetch(parser, units);
+        } else {
+            ParserPool.adopt(batchCompiler.parser);
+        }
+        return units;
+    }
+
+    private void prefetch(PrefetchingParser parser, CompilationUnit[] units) {
+        if (workers == 0) {
+            parser.prefetch(units, ForkJoinPool.commonPool());
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+            parser.prefetch(units, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Override
+    public void performCompilation() {
+        try {
+            super.performCompilation();
+        } finally {
+            if (batchCompiler != null && batchCompiler.parser != null) {
+                // Lets the next compilation on this thread start with the stacks grown here.
+                ParserPool.release(batchCompiler.parser);
+            }
+        }
+    }
+
+    // Without a listener problems are formatted into the error writer as usual.
+    @Override
+    public ICompilerRequestor getBatchRequestor() {
+        if (diagnosticListener == null) return super.getBatchRequestor();
+        return new BatchCompilerRequestor(this) {
+            @Override
+            public void acceptResult(CompilationResult result) {
+                if (result.hasProblems() || result.hasTasks()) {
+                    report(result.getAllProblems());
+                }
+                outputClassFiles(result);
+            }
+        };
+    }
+
+    // Keeps the counters Main's logger would have kept, which decide the compile result.
+    private void report(CategorizedProblem[] problems) {
+        for (CategorizedProblem problem : problems) {
+            if (problem == null) continue;
+            globalProblemsCount++;
+            if (problem.isError()) {
+                globalErrorsCount++;
+                if (maxErrors > 0 && globalErrorsCount > maxErrors) continue;
+            } else if (problem.getID() == IProblem.Task) {
+                globalTasksCount++;
+                continue;
+            } else if (problem.isInfo()) {
+                globalInfoCount++;
+            } else {
+                globalWarningsCount++;
+            }
+            diagnosticListener.report(JavacDiagnostic.of(problem));
+        }
+    }
+
+    // Main hands the class files back to ECJ's pool once written, and another thread may reuse
+    // them right away, so listeners must see the result first.
+    @Override
+    public void outputClassFiles(CompilationResult unitResult) {
+        if (unitResult == null) return;
+        if (resultListener != null) {
+            resultListener.onResult(unitResult);
+        }
+        // Same rule as Main: a unit with errors produces no output.
+        if (classConsumer != null && !unitResult.hasErrors()) {
+            for (ClassFile classFile : unitResult.getClassFiles()) {
+                classConsumer.accept(new String(classFile.fileName()), classFile.getBytes());
+            }
+        }
+        if (writeClassFiles) {
+            super.outputClassFiles(unitResult);
+        } else {
+            batchCompiler.lookupEnvironment.releaseClassFiles(unitResult.getClassFiles());
+        }
+    }
+
+    private final class ErrorLimit extends CompilationProgress {
+        private final CompilationProgress delegate;
+
+        ErrorLimit(CompilationProgress delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void begin(int remainingWork) {
+            if (delegate != null) delegate.begin(remainingWork);
+        }
+
+        @Override
+        public void done() {
+            if (delegate != null) delegate.done();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return globalErrorsCount >= maxErrors || (delegate != null && delegate.isCanceled());
+        }
+
+        @Override
+        public void setTaskName(String name) {
+            if (delegate != null) delegate.setTaskName(name);
+        }
+
+        @Override
+        public void worked(int workIncrement, int remainingWork) {
+            if (delegate != null) delegate.worked(workIncrement, remainingWork);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.xedox.javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.jdt.internal.compiler.batch.ClasspathJar;
+import org.eclipse.jdt.internal.compiler.batch.FileSystem;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileReader;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFormatException;
+import org.eclipse.jdt.internal.compiler.env.NameEnvironmentAnswer;
+
+/**
+ * Keeps classpath jars open between compilations, together with every binary type already read
+ * from them, so repeated builds do not reopen android.jar and decode the same classes again. A jar
+ * is reopened once its size or modification time changes. Where a {@link JarIndex} can be written
+ * next to a jar, types are read through it instead of the zip file. Compilations sharing a session
+ * run one at a time.
+ */
+public final class CompilerSession implements AutoCloseable {
+    private static final CompilerSession SHARED = new CompilerSession();
+
+    private final Map<String, SessionJar> jars = new HashMap<>();
+
+    /** A session for the whole process. */
+    public static CompilerSession shared() {
+        return SHARED;
+    }
+
+    // Swaps plain jar entries for the cached ones, in place.
+    synchronized void attach(FileSystem.Classpath[] classpaths) {
+        if (classpaths == null) return;
+        for (int i = 0; i < classpaths.length; i++) {
+            FileSystem.Classpath entry = classpaths[i];
+            // Subclasses handle multi-release jars and modules, and access rules are per build.
+            if (entry.getClass() != ClasspathJar.class
+                    || ((ClasspathJar) entry).accessRuleSet != null) {
+                continue;
+            }
+            File file = new File(entry.getPath());
+            String key = file.getAbsolutePath() + "|" + entry.getDestinationPath();
+            String stamp = file.length() + ":" + file.lastModified();
+            SessionJar jar = jars.get(key);
+            if (jar == null || !jar.stamp.equals(stamp)) {
+                if (jar != null) jar.dispose();
+                jar = new SessionJar(file, entry.getDestinationPath(), stamp, index(file));
+                jars.put(key, jar);
+            }
+            // Main may already have opened the entry it created.
+            entry.reset();
+            classpaths[i] = jar;
+        }
+    }
+
+    // Jars the index cannot be written for are read through the zip file as usual.
+    private static JarIndex index(File jar) {
+        try {
+            return JarIndex.forJar(jar);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public synchronized int getJarCount() {
+        return jars.size();
+    }
+
+    public synchronized int getTypeCount() {
+        int count = 0;
+        for (SessionJar jar : jars.values()) {
+            count += jar.answers.size();
+        }
+        return count;
+    }
+
+    /** Closes every cached jar. The session stays usable and reopens jars on demand. */
+    @Override
+    public synchronized void close() {
+        for (Iterator<SessionJar> it = jars.values().iterator(); it.hasNext(); ) {
+            it.next().dispose();
+            it.remove();
+        }
+    }
+
+    private static final class SessionJar extends ClasspathJar {
+        final String stamp;
+        final JarIndex index;
+        // Empty for names the jar does not have, which are looked up just as often.
+        final Map<String, Optional<NameEnvironmentAnswer>> answers = new ConcurrentHashMap<>();
+
+        SessionJar(File file, String destinationPath, String stamp, JarIndex index) {
+            // Lets dispose() close the zip; reset() itself does nothing between compilations.
+            super(file, true, null, destinationPath);
+            this.stamp = stamp;
+            this.index = index;
+        }
+
+        // With an index the zip is only opened for the rare lookups it does not answer.
+        @Override
+        public void initialize() throws IOException {
+            if (index == null) super.initialize();
+        }
+
+        @Override
+        public char[][] getModulesDeclaringPackage(String qualifiedPackageName, String moduleName) {
+            if (index == null) {
+                return super.getModulesDeclaringPackage(qualifiedPackageName, moduleName);
+            }
+            return singletonModuleNameIf(index.hasPackage(qualifiedPackageName));
+        }
+
+        @Override
+        public boolean hasCompilationUnit(String qualifiedPackageName, String moduleName) {
+            if (index == null) return super.hasCompilationUnit(qualifiedPackageName, moduleName);
+            return index.hasTypes(qualifiedPackageName);
+        }
+
+        @Override
+        public char[][] listPackages() {
+            if (index == null) return super.listPackages();
+            List<String> packages = index.getPackages();
+            char[][] result = new char[packages.size()][];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = packages.get(i).replace('/', '.').toCharArray();
+            }
+            return result;
+        }
+
+        @Override
+        public char[][][] findTypeNames(String qualifiedPackageName, String moduleName) {
+            open();
+            return super.findTypeNames(qualifiedPackageName, moduleName);
+        }
+
+        @Override
+        public boolean hasAnnotationFileFor(String qualifiedTypeName) {
+            open();
+            return super.hasAnnotationFileFor(qualifiedTypeName);
+        }
+
+        @Override
+        public NameEnvironmentAnswer findClass(
+                char[] typeName,
+                String qualifiedPackageName,
+                String moduleName,
+                String qualifiedBinaryFileName,
+                boolean asBinaryOnly) {
+            Optional<NameEnvironmentAnswer> answer = answers.get(qualifiedBinaryFileName);
+            if (answer == null) {
+                answer =
+                        Optional.ofNullable(
+                                index != null
+                                        ? findIndexed(qualifiedBinaryFileName)
+                                        : super.findClass(
+                                                typeName,
+                                                qualifiedPackageName,
+                                                moduleName,
+                                                qualifiedBinaryFileName,
+                                                asBinaryOnly));
+                answers.put(qualifiedBinaryFileName, answer);
+            }
+            return answer.orElse(null);
+        }
+
+        private NameEnvironmentAnswer findIndexed(String qualifiedBinaryFileName) {
+            String binaryName =
+                    qualifiedBinaryFileName.substring(
+                            0, qualifiedBinaryFileName.length() - SUFFIX_STRING_class.length());
+            try {
+                byte[] bytes = index.readClass(binaryName);
+                if (bytes == null) return null;
+                ClassFileReader reader =
+                        new ClassFileReader(bytes, qualifiedBinaryFileName.toCharArray());
+                return new NameEnvironmentAnswer(
+                        reader, fetchAccessRestriction(qualifiedBinaryFileName));
+            } catch (IOException | ClassFormatException e) {
+                return null;
+            }
+        }
+
+        private void open() {
+            try {
+                super.initialize();
+            } catch (IOException e) {
+                // ClasspathJar itself reports nothing found when the zip does not open.
+            }
+        }
+
+        // FileSystem.cleanup() resets every entry after each compilation.
+        @Override
+        public void reset() {}
+
+        void dispose() {
+            answers.clear();
+            super.reset();
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package org.xedox.javac;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.eclipse.jdt.internal.compiler.ClassFile;
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+
+/**
+ * Compiles a source set into an output directory, recompiling only the files that changed since
+ * the previous run and the files that reference a type whose API changed, as seen by {@link
+ * AbiHasher}. The output directory is put on the classpath so untouched types are read from their
+ * existing class files.
+ *
+ * <p>Dependencies are tracked per compilation unit from the simple names and root packages ECJ
+ * records while resolving it. A type counts as referenced when both its simple name and its root
+ * package were looked up, which over-approximates but never misses a real reference.
+ */
+public final class IncrementalCompiler {
+    private static final String DIRTY = "";
+    // Bump when the meaning of recorded hashes changes, to force one full build.
+    private static final String STATE_VERSION = "3";
+
+    private final JavaCompiler compiler;
+    private final File outputDir;
+    private final File stateFile;
+
+    private final List<String> compiledSources = new ArrayList<>();
+    private int sourceCount;
+    private int rounds;
+    private boolean fullBuild;
+
+    public IncrementalCompiler(JavaCompiler compiler, File outputDir, File stateFile) {
+        this.compiler = compiler;
+        this.outputDir = outputDir;
+        this.stateFile = stateFile;
+    }
+
+    public boolean compile(List<String> sourcePaths, OptionsBuilder options) throws IOException {
+        return compile(sourcePaths, Arrays.asList(options.build()));
+    }
+
+    /**
+     * @param sourcePaths source files or directories to scan for {@code .java} files
+     * @param options compiler options, without {@code -d} and without source files
+     */
+    public boolean compile(List<String> sourcePaths, List<String> options) throws IOException {
+        compiledSources.clear();
+        rounds = 0;
+
+        Map<String, File> sources = collectSources(sourcePaths);
+        sourceCount = sources.size();
+        String optionsKey = optionsKey(options);
+
+        CompilationState state = CompilationState.load(stateFile);
+        fullBuild =
+                !optionsKey.equals(state.optionsKey)
+                        || state.sources.isEmpty()
+                        || hasMissingOutputs(state);
+        if (fullBuild) {
+            deleteClassFiles(outputDir);
+            state = new CompilationState();
+        }
+        state.optionsKey = optionsKey;
+        outputDir.mkdirs();
+
+        Set<String> changedTypes = new HashSet<>();
+        for (String path : new ArrayList<>(state.sources.keySet())) {
+            if (sources.containsKey(path)) continue;
+            CompilationState.Source removed = state.sources.remove(path);
+            for (String type : removed.types) {
+                deleteClassFile(type);
+                state.typeHashes.remove(type);
+                changedTypes.add(type);
+            }
+        }
+
+        Map<String, String> fingerprints = new HashMap<>();
+        Set<String> pending = new TreeSet<>();
+        for (Map.Entry<String, File> entry : sources.entrySet()) {
+            String path = entry.getKey();
+            CompilationState.Source previous = state.sources.get(path);
+            String fingerprint =
+                    fingerprint(entry.getValue(), previous != null ? previous.fingerprint : null);
+            fingerprints.put(path, fingerprint);
+            if (previous != null && sameContent(previous.fingerprint, fingerprint)) {
+                previous.fingerprint = fingerprint;
+            } else {
+                pending.add(path);
+            }
+        }
+
+        // Units of the last round already saw the types it changed. Units of earlier rounds did
+        // not, so a dependent compiled before a cycle partner changed its API is compiled again.
+        Set<String> lastRound = new HashSet<>();
+        Set<String> compiled = new HashSet<>();
+        while (true) {
+            pending.addAll(findDependents(state, changedTypes, sources.keySet()));
+            pending.removeAll(lastRound);
+            if (pending.isEmpty()) break;
+
+            rounds++;
+            changedTypes = new HashSet<>();
+            if (!compileRound(pending, options, state, fingerprints, changedTypes)) {
+                if (fullBuild) {
+                    stateFile.delete();
+                } else {
+                    state.save(stateFile);
+                }
+                return false;
+            }
+            for (String path : pending) {
+                if (compiled.add(path)) compiledSources.add(path);
+            }
+            lastRound = pending;
+            pending = new TreeSet<>();
+        }
+
+        state.save(stateFile);
+        return true;
+    }
+
+    /** Binary names of every class the output directory holds after the last compile. */
+    public static List<String> readOutputTypes(File stateFile) {
+        List<String> types = new ArrayList<>();
+        for (CompilationState.Source source : CompilationState.load(stateFile).sources.values()) {
+            types.addAll(source.types);
+        }
+        return types;
+    }
+
+    public List<String> getCompiledSources() {
+        return compiledSources;
+    }
+
+    public int getSourceCount() {
+        return sourceCount;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    public boolean isFullBuild() {
+        return fullBuild;
+    }
+
+    private boolean compileRound(
+            Set<String> paths,
+            List<String> options,
+            CompilationState state,
+            Map<String, String> fingerprints,
+            Set<String> changedTypes)
+            throws IOException {
+        for (String path : paths) {
+            CompilationState.Source previous = state.sources.get(path);
+            if (previous == null) continue;
+            for (String type : previous.types) {
+                deleteClassFile(type);
+            }
+        }
+
+        List<String> args = new ArrayList<>(options);
+        args.add("-d");
+        args.add(outputDir.getAbsolutePath());
+        args.add("-classpath");
+        args.add(outputDir.getAbsolutePath());
+        args.addAll(paths);
+
+        Map<String, UnitResult> results = new HashMap<>();
+        JavaCompiler.ResultListener previousListener = compiler.getResultListener();
+        compiler.setResultListener(
+                result -> {
+                    UnitResult unit = new UnitResult(result);
+                    synchronized (results) {
+                        results.put(unitPath(result, paths), unit);
+                    }
+                });
+        boolean success;
+        try {
+            success = compiler.compile(args);
+        } finally {
+            compiler.setResultListener(previousListener);
+        }
+
+        for (String path : paths) {
+            CompilationState.Source previous = state.sources.get(path);
+            List<String> previousTypes = previous != null ? previous.types : new ArrayList<>();
+            UnitResult result = results.get(path);
+
+            if (!success) {
+                // Keep the old hashes so the next build still sees what changed, and remember
+                // every type the unit may have left behind in the output directory.
+                CompilationState.Source dirty = state.source(path);
+                dirty.fingerprint = DIRTY;
+                if (result != null) {
+                    Set<String> types = new LinkedHashSet<>(dirty.types);
+                    types.addAll(result.typeHashes.keySet());
+                    dirty.types = new ArrayList<>(types);
+                }
+                continue;
+            }
+
+            CompilationState.Source source = new CompilationState.Source();
+            source.fingerprint = fingerprints.get(path);
+            if (result != null) {
+                source.types.addAll(result.typeHashes.keySet());
+                source.names.addAll(result.names);
+                source.roots.addAll(result.roots);
+                for (Map.Entry<String, String> entry : result.typeHashes.entrySet()) {
+                    String old = state.typeHashes.put(entry.getKey(), entry.getValue());
+                    if (!entry.getValue().equals(old)) changedTypes.add(entry.getKey());
+                }
+            }
+            for (String type : previousTypes) {
+                if (source.types.contains(type)) continue;
+                state.typeHashes.remove(type);
+                changedTypes.add(type);
+            }
+            state.sources.put(path, source);
+        }
+        return success;
+    }
+
+    private static Set<String> findDependents(
+            CompilationState state, Set<String> changedTypes, Collection<String> existing) {
+        Set<String> dependents = new TreeSet<>();
+        if (changedTypes.isEmpty()) return dependents;
+
+        Map<String, Set<String>> referable = new HashMap<>();
+        for (String type : changedTypes) {
+            String simpleName = simpleName(type);
+            if (simpleName == null) continue;
+            referable.computeIfAbsent(simpleName, k -> new HashSet<>()).add(rootPackage(type));
+        }
+        if (referable.isEmpty()) return dependents;
+
+        for (Map.Entry<String, CompilationState.Source> entry : state.sources.entrySet()) {
+            if (!existing.contains(entry.getKey())) continue;
+            CompilationState.Source source = entry.getValue();
+            for (String name : source.names) {
+                Set<String> roots = referable.get(name);
+                if (roots != null && references(source, roots)) {
+                    dependents.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return dependents;
+    }
+
+    private static boolean references(CompilationState.Source source, Set<String> roots) {
+        for (String root : roots) {
+            if (root == null || source.roots.contains(root)) return true;
+        }
+        return false;
+    }
+
+    // Innermost name of a binary type name, or null for anonymous and local classes.
+    private static String simpleName(String type) {
+        String name = type.substring(type.lastIndexOf('/') + 1);
+        name = name.substring(name.lastIndexOf('$') + 1);
+        if (name.isEmpty() || Character.isDigit(name.charAt(0))) return null;
+        return name;
+    }
+
+    private static String rootPackage(String type) {
+        int slash = type.indexOf('/');
+        return slash < 0 ? null : type.substring(0, slash);
+    }
+
+    private static String unitPath(CompilationResult result, Set<String> paths) {
+        String fileName = new String(result.getFileName());
+        String path = new File(fileName).getAbsolutePath();
+        if (paths.contains(path)) return path;
+        try {
+            String canonical = new File(path).getCanonicalPath();
+            for (String candidate : paths) {
+                if (new File(candidate).getCanonicalPath().equals(canonical)) return candidate;
+            }
+        } catch (IOException ignored) {
+        }
+        return path;
+    }
+
+    private boolean hasMissingOutputs(CompilationState state) {
+        for (CompilationState.Source source : state.sources.values()) {
+            // Sources that failed last time are recompiled anyway.
+            if (source.fingerprint.equals(DIRTY)) continue;
+            for (String type : source.types) {
+                if (!new File(outputDir, type + ".class").isFile()) return true;
+            }
+        }
+        return false;
+    }
+
+    private void deleteClassFile(String type) {
+        new File(outputDir, type + ".class").delete();
+    }
+
+    private static void deleteClassFiles(File dir) {
+        File[] children = dir.listFiles();
+        if (children == null) return;
+        for (File child : children) {
+            if (child.isDirectory()) {
+                deleteClassFiles(child);
+                child.delete();
+            } else if (child.getName().endsWith(".class")) {
+                child.delete();
+            }
+        }
+    }
+
+    static Map<String, File> collectSources(List<String> sourcePaths) {
+        Map<String, File> sources = new TreeMap<>();
+        for (String sourcePath : sourcePaths) {
+            collectSources(new File(sourcePath), sources);
+        }
+        return sources;
+    }
+
+    private static void collectSources(File file, Map<String, File> sources) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) return;
+            Arrays.sort(children, Comparator.comparing(File::getName));
+            for (File child : children) {
+                collectSources(child, sources);
+            }
+        } else if (file.getName().endsWith(".java")) {
+            // Normalized, so the path the state stores relative to itself resolves back to it.
+            // The file itself too, since SymbolIndex keys by its absolute path.
+            File source = file.getAbsoluteFile().toPath().normalize().toFile();
+            sources.put(source.getPath(), source);
+        }
+    }
+
+    // Options plus the size and timestamp of every file they name, so a new android.jar or
+    // library forces a full build.
+    private static String optionsKey(List<String> options) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, JavaCompiler.VERSION);
+        update(digest, STATE_VERSION);
+        for (String option : options) {
+            update(digest, option);
+            for (String part : option.split(File.pathSeparator)) {
+                File file = new File(part);
+                if (file.isFile()) {
+                    update(digest, stamp(file));
+                }
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    // An indexed jar counts by its API, so a rebuilt android.jar with the same API keeps the state.
+    private static String stamp(File file) {
+        if (file.getName().endsWith(".jar")) {
+            try {
+                return "api:" + JarIndex.forJar(file).getApiHash();
+            } catch (IOException e) {
+                // No index next to the jar, fall back to its timestamp.
+            }
+        }
+        return file.length() + ":" + file.lastModified();
+    }
+
+    // size:mtime:sha256. The content hash is only recomputed when size or timestamp moved, so
+    // regenerated but identical files like R.java do not count as changes.
+    private static String fingerprint(File file, String previous) throws IOException {
+        String stamp = file.length() + ":" + file.lastModified() + ":";
+        if (previous != null && previous.startsWith(stamp)) return previous;
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return stamp + toHex(digest.digest());
+    }
+
+    private static boolean sameContent(String previous, String current) {
+        if (previous == null || previous.isEmpty()) return false;
+        String previousHash = previous.substring(previous.lastIndexOf(':') + 1);
+        String currentHash = current.substring(current.lastIndexOf(':') + 1);
+        return previousHash.equals(currentHash);
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static final class UnitResult {
+        final Map<String, String> typeHashes = new LinkedHashMap<>();
+        final Set<String> names = new TreeSet<>();
+        final Set<String> roots = new TreeSet<>();
+
+        UnitResult(CompilationResult result) {
+            ClassFile[] classFiles = result.getClassFiles();
+            if (classFiles != null) {
+                for (ClassFile classFile : classFiles) {
+                    String name = new String(classFile.fileName());
+                    typeHashes.put(name, AbiHasher.hash(name, classFile.getBytes()));
+                }
+            }
+            if (result.simpleNameReferences != null) {
+                for (char[] name : result.simpleNameReferences) {
+                    names.add(new String(name));
+                }
+            }
+            if (result.rootReferences != null) {
+                for (char[] root : result.rootReferences) {
+                    roots.add(new String(root));
+                }
+            }
+        }
+    }
+}
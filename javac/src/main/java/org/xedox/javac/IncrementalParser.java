@@ -0,0 +1,290 @@
+package org.xedox.javac;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+import org.eclipse.jdt.internal.compiler.ast.ASTNode;
+import org.eclipse.jdt.internal.compiler.ast.AbstractMethodDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.AbstractVariableDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.CompilationUnitDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.FieldDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.Initializer;
+import org.eclipse.jdt.internal.compiler.ast.TypeDeclaration;
+import org.eclipse.jdt.internal.compiler.batch.CompilationUnit;
+import org.eclipse.jdt.internal.compiler.parser.Parser;
+import org.eclipse.jdt.internal.compiler.util.Util;
+
+/**
+ * Parses a source file for syntax checking and, after an edit inside a single method, constructor
+ * or initializer body, reparses only that body.
+ *
+ * <p>A reparse outline-parses the edited text, which skips every body, and checks that all bodies
+ * still start and end where the edit moved them. The edited body is then parsed again and the
+ * problems of the others are carried over with their positions shifted. An edit outside a body,
+ * one that opens or closes a body, or one in a file whose outline has syntax errors takes a full
+ * parse instead, since recovering from those moves bodies around.
+ */
+public final class IncrementalParser {
+    private final Parser parser;
+
+    /** @param sourceLevel Java version the sources are written in, such as {@code "17"} */
+    public IncrementalParser(String sourceLevel) {
+        this.parser = SymbolIndex.newParser(sourceLevel);
+    }
+
+    // A method, constructor or initializer body, with the type declaring it.
+    private static final class Body {
+        final ASTNode node;
+        final TypeDeclaration type;
+
+        Body(ASTNode node, TypeDeclaration type) {
+            this.node = node;
+            this.type = type;
+        }
+
+        int start() {
+            return node instanceof Initializer
+                    ? ((Initializer) node).bodyStart
+                    : ((AbstractMethodDeclaration) node).bodyStart;
+        }
+
+        int end() {
+            return node instanceof Initializer
+                    ? ((Initializer) node).bodyEnd
+                    : ((AbstractMethodDeclaration) node).bodyEnd;
+        }
+    }
+
+    /** The parse of one version of a file. */
+    public static final class Result {
+        public final String path;
+        public final String contents;
+        /** Whether this came from reparsing one body of the previous result. */
+        public final boolean incremental;
+
+        private final CompilationUnitDeclaration unit;
+        private final List<Body> bodies;
+        private final List<JavacDiagnostic> outlineProblems;
+        private final List<List<JavacDiagnostic>> bodyProblems;
+        private boolean complete;
+
+        Result(
+                String path,
+                String contents,
+                boolean incremental,
+                CompilationUnitDeclaration unit,
+                List<Body> bodies,
+                List<JavacDiagnostic> outlineProblems,
+                List<List<JavacDiagnostic>> bodyProblems) {
+            this.path = path;
+            this.contents = contents;
+            this.incremental = incremental;
+            this.unit = unit;
+            this.bodies = bodies;
+            this.outlineProblems = outlineProblems;
+            this.bodyProblems = bodyProblems;
+            this.complete = !incremental;
+        }
+
+        /** Syntax problems in the whole file. */
+        public List<JavacDiagnostic> getDiagnostics() {
+            List<JavacDiagnostic> diagnostics = new ArrayList<>(outlineProblems);
+            for (List<JavacDiagnostic> problems : bodyProblems) {
+                diagnostics.addAll(problems);
+            }
+            return diagnostics;
+        }
+
+        public boolean hasErrors() {
+            for (JavacDiagnostic diagnostic : getDiagnostics()) {
+                if (diagnostic.isError()) return true;
+            }
+            return false;
+        }
+    }
+
+    /** Parses all of {@code contents}. */
+    public synchronized Result parse(String path, String contents) {
+        CompilationUnitDeclaration unit = dietParse(path, contents);
+        List<JavacDiagnostic> outlineProblems = diagnostics(unit.compilationResult, 0);
+        List<Body> bodies = bodies(unit);
+        List<List<JavacDiagnostic>> bodyProblems = new ArrayList<>(bodies.size());
+        parser.scanner.setSource(unit.compilationResult);
+        for (Body body : bodies) {
+            bodyProblems.add(parseBody(unit, body));
+        }
+        unit.bits |= ASTNode.HasAllMethodBodies;
+        return new Result(path, contents, false, unit, bodies, outlineProblems, bodyProblems);
+    }
+
+    /**
+     * Parses {@code previous} with {@code length} characters at {@code offset} replaced by {@code
+     * text}, reparsing a single body when the edit stays inside one.
+     */
+    public synchronized Result reparse(Result previous, int offset, int length, String text) {
+        String contents =
+                previous.contents.substring(0, offset)
+                        + text
+                        + previous.contents.substring(offset + length);
+        int edited = editedBody(previous.bodies, offset, offset + length);
+        if (edited < 0 || !previous.outlineProblems.isEmpty()) {
+            return parse(previous.path, contents);
+        }
+
+        CompilationUnitDeclaration unit = dietParse(previous.path, contents);
+        List<Body> bodies = bodies(unit);
+        int delta = text.length() - length;
+        if (unit.compilationResult.problemCount > 0
+                || !sameBodies(previous.bodies, bodies, offset, delta)) {
+            return parse(previous.path, contents);
+        }
+
+        List<JavacDiagnostic> outlineProblems = diagnostics(unit.compilationResult, 0);
+        int[] lineEnds = unit.compilationResult.getLineSeparatorPositions();
+        List<List<JavacDiagnostic>> bodyProblems = new ArrayList<>(bodies.size());
+        for (int i = 0; i < bodies.size(); i++) {
+            if (i == edited) {
+                parser.scanner.setSource(unit.compilationResult);
+                bodyProblems.add(parseBody(unit, bodies.get(i)));
+            } else {
+                bodyProblems.add(shift(previous.bodyProblems.get(i), offset, delta, lineEnds));
+            }
+        }
+        return new Result(
+                previous.path, contents, true, unit, bodies, outlineProblems, bodyProblems);
+    }
+
+    /**
+     * The tree of {@code result}. Only the edited body of an incremental result is parsed until
+     * this is first called, which parses the rest.
+     */
+    public synchronized CompilationUnitDeclaration getUnit(Result result) {
+        if (!result.complete) {
+            parser.scanner.setSource(result.unit.compilationResult);
+            for (Body body : result.bodies) {
+                parseBody(result.unit, body);
+            }
+            result.unit.bits |= ASTNode.HasAllMethodBodies;
+            result.complete = true;
+        }
+        return result.unit;
+    }
+
+    private CompilationUnitDeclaration dietParse(String path, String contents) {
+        CompilationUnit source = new CompilationUnit(contents.toCharArray(), path, null);
+        CompilationResult result = new CompilationResult(source, 0, 1, Integer.MAX_VALUE);
+        return parser.dietParse(source, result);
+    }
+
+    // Same as TypeDeclaration.parseMethods, for one body, returning the problems it found.
+    private List<JavacDiagnostic> parseBody(CompilationUnitDeclaration unit, Body body) {
+        int first = unit.compilationResult.problemCount;
+        if (body.node instanceof Initializer) {
+            ((Initializer) body.node).parseStatements(parser, body.type, unit);
+        } else {
+            ((AbstractMethodDeclaration) body.node).parseStatements(parser, unit);
+        }
+        body.type.bits |= body.node.bits & ASTNode.HasSyntaxErrors;
+        return diagnostics(unit.compilationResult, first);
+    }
+
+    // Every body the outline parse jumped over, in the order getMethodBodies parses them.
+    private static List<Body> bodies(CompilationUnitDeclaration unit) {
+        List<Body> bodies = new ArrayList<>();
+        if (unit.types != null) {
+            for (TypeDeclaration type : unit.types) {
+                addBodies(type, bodies);
+            }
+        }
+        return bodies;
+    }
+
+    private static void addBodies(TypeDeclaration type, List<Body> bodies) {
+        if (type.memberTypes != null) {
+            for (TypeDeclaration member : type.memberTypes) {
+                addBodies(member, bodies);
+            }
+        }
+        if (type.methods != null) {
+            for (AbstractMethodDeclaration method : type.methods) {
+                // Implicit constructors have no source of their own.
+                if ((method.bits & ASTNode.IsImplicit) != 0 || method.isDefaultConstructor()) {
+                    continue;
+                }
+                if (method.isAbstract() || method.isNative() || method.bodyStart <= 0) continue;
+                bodies.add(new Body(method, type));
+            }
+        }
+        if (type.fields != null) {
+            for (FieldDeclaration field : type.fields) {
+                if (field.getKind() == AbstractVariableDeclaration.INITIALIZER) {
+                    bodies.add(new Body(field, type));
+                }
+            }
+        }
+    }
+
+    // The body whose text between its braces contains all of [start, end), or -1.
+    private static int editedBody(List<Body> bodies, int start, int end) {
+        for (int i = 0; i < bodies.size(); i++) {
+            Body body = bodies.get(i);
+            if (body.start() <= start && end <= body.end() + 1) return i;
+        }
+        return -1;
+    }
+
+    // The outline is unchanged when every body kept its place, moved by the edit if after it.
+    private static boolean sameBodies(
+            List<Body> previous, List<Body> current, int offset, int delta) {
+        if (previous.size() != current.size()) return false;
+        for (int i = 0; i < previous.size(); i++) {
+            Body before = previous.get(i);
+            Body after = current.get(i);
+            int start = before.start();
+            int end = before.end();
+            if (start > offset) start += delta;
+            if (end + 1 >= offset) end += delta;
+            if (before.node.getClass() != after.node.getClass()
+                    || after.start() != start
+                    || after.end() != end) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<JavacDiagnostic> diagnostics(CompilationResult result, int first) {
+        if (result.problemCount <= first) return Collections.emptyList();
+        List<JavacDiagnostic> diagnostics = new ArrayList<>(result.problemCount - first);
+        for (int i = first; i < result.problemCount; i++) {
+            CategorizedProblem problem = result.problems[i];
+            if (problem != null) diagnostics.add(JavacDiagnostic.of(problem));
+        }
+        return diagnostics;
+    }
+
+    // Lines are looked up again for all of them, since the edit may have added or removed some.
+    private static List<JavacDiagnostic> shift(
+            List<JavacDiagnostic> diagnostics, int offset, int delta, int[] lineEnds) {
+        if (diagnostics.isEmpty()) return diagnostics;
+        List<JavacDiagnostic> shifted = new ArrayList<>(diagnostics.size());
+        for (JavacDiagnostic d : diagnostics) {
+            int moved = d.startPosition < offset ? 0 : delta;
+            int start = d.startPosition + moved;
+            int line = Util.getLineNumber(start, lineEnds, 0, lineEnds.length - 1);
+            shifted.add(
+                    new JavacDiagnostic(
+                            d.severity,
+                            d.path,
+                            line,
+                            Util.searchColumnNumber(lineEnds, line, start),
+                            start,
+                            d.endPosition + moved,
+                            d.problemId,
+                            d.message));
+        }
+        return shifted;
+    }
+}
@@ -0,0 +1,469 @@
+package org.xedox.javac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A binary index of the classes in a jar, written once to {@code <jar>.idx} and memory-mapped
+ * afterwards. It maps packages to their types and every type to its entry in the jar, so a lookup
+ * touches neither the central directory nor any entry other than the one asked for. It also
+ * records an API hash per type, see {@link #getApiHash()}.
+ *
+ * <p>The index is rebuilt when the jar's size or modification time no longer match.
+ */
+public final class JarIndex {
+    public static final String SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x544b4958; // TKIX
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int PACKAGE_SIZE = 16;
+    private static final int TYPE_SIZE = 36;
+
+    private static final Map<String, JarIndex> OPEN = new ConcurrentHashMap<>();
+
+    private final File jar;
+    private final ByteBuffer index;
+    private final int packageCount;
+    private final int typeCount;
+    private final int packagesOffset;
+    private final int typesOffset;
+    private final int namesOffset;
+    private ByteBuffer jarData;
+
+    private JarIndex(File jar, ByteBuffer index) throws IOException {
+        this.jar = jar;
+        this.index = index;
+        if (index.capacity() < HEADER_SIZE
+                || index.getInt(0) != MAGIC
+                || index.getInt(4) != VERSION) {
+            throw new IOException("Not a jar index: " + jar);
+        }
+        packageCount = index.getInt(24);
+        typeCount = index.getInt(28);
+        packagesOffset = index.getInt(32);
+        typesOffset = index.getInt(36);
+        namesOffset = index.getInt(40);
+        // The tables follow each other in this order, so a truncated file is caught here.
+        if (packageCount < 0
+                || typeCount < 0
+                || packagesOffset != HEADER_SIZE
+                || typesOffset != packagesOffset + (long) packageCount * PACKAGE_SIZE
+                || namesOffset != typesOffset + (long) typeCount * TYPE_SIZE
+                || namesOffset > index.capacity()) {
+            throw new IOException("Corrupt jar index: " + jar);
+        }
+    }
+
+    /**
+     * Returns the index of {@code jar}, building {@code <jar>.idx} first when it is missing or
+     * stale. Open indexes are shared across the process.
+     */
+    public static JarIndex forJar(File jar) throws IOException {
+        String key = jar.getAbsolutePath();
+        JarIndex index = OPEN.get(key);
+        if (index != null && !index.isStale()) return index;
+        synchronized (OPEN) {
+            index = OPEN.get(key);
+            if (index == null || index.isStale()) {
+                index = open(jar, new File(jar.getPath() + SUFFIX));
+                OPEN.put(key, index);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Maps {@code indexFile}, rebuilding it from {@code jar} when it is missing, stale, of
+     * another version or unreadable.
+     */
+    public static JarIndex open(File jar, File indexFile) throws IOException {
+        if (indexFile.isFile()) {
+            try {
+                JarIndex index = new JarIndex(jar, map(indexFile));
+                if (!index.isStale()) return index;
+            } catch (IOException e) {
+                // Corrupt, or written by another version: built again below.
+            }
+        }
+        // A temporary file of our own, so two processes indexing the same jar cannot interleave.
+        File dir = indexFile.getAbsoluteFile().getParentFile();
+        Path tmp = Files.createTempFile(dir.toPath(), indexFile.getName(), ".tmp");
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+                out.write(build(jar));
+            }
+            Files.move(
+                    tmp,
+                    indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return new JarIndex(jar, map(indexFile));
+    }
+
+    public File getJar() {
+        return jar;
+    }
+
+    /** Whether the jar changed since the index was built. */
+    public boolean isStale() {
+        return index.getLong(8) != jar.length() || index.getLong(16) != jar.lastModified();
+    }
+
+    public int getTypeCount() {
+        return typeCount;
+    }
+
+    /** Whether {@code name}, in binary form like {@code android/app}, is a package of the jar. */
+    public boolean hasPackage(String name) {
+        return findPackage(name) >= 0;
+    }
+
+    /** Whether {@code name} directly contains classes, as opposed to only subpackages. */
+    public boolean hasTypes(String name) {
+        int pkg = findPackage(name);
+        return pkg >= 0 && index.getInt(packageRecord(pkg) + 12) > 0;
+    }
+
+    public List<String> getPackages() {
+        List<String> packages = new ArrayList<>(packageCount);
+        for (int i = 0; i < packageCount; i++) {
+            packages.add(name(packageRecord(i)));
+        }
+        return packages;
+    }
+
+    /** Binary names of all classes, like {@code android/app/Activity}, in index order. */
+    public List<String> getTypes() {
+        List<String> types = new ArrayList<>(typeCount);
+        for (int p = 0; p < packageCount; p++) {
+            int record = packageRecord(p);
+            String prefix = name(record);
+            if (!prefix.isEmpty()) prefix += "/";
+            int first = index.getInt(record + 8);
+            int count = index.getInt(record + 12);
+            for (int t = first; t < first + count; t++) {
+                types.add(prefix + name(typeRecord(t)));
+            }
+        }
+        return types;
+    }
+
+    public boolean hasType(String binaryName) {
+        return findType(binaryName) >= 0;
+    }
+
+    /** Inflates the class file of {@code binaryName}, or returns null if the jar has none. */
+    public byte[] readClass(String binaryName) throws IOException {
+        int type = findType(binaryName);
+        if (type < 0) return null;
+        int record = typeRecord(type);
+        long offset = index.getLong(record + 8);
+        int compressedSize = index.getInt(record + 16);
+        int size = index.getInt(record + 20);
+        int method = index.getShort(record + 24);
+
+        ByteBuffer data = jarData().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (data.getInt((int) offset) != 0x04034b50) {
+            throw new IOException("Corrupt jar index for " + jar + ": " + binaryName);
+        }
+        int nameLength = data.getShort((int) offset + 26) & 0xffff;
+        int extraLength = data.getShort((int) offset + 28) & 0xffff;
+        data.position((int) offset + 30 + nameLength + extraLength);
+        if (method == 0) {
+            byte[] bytes = new byte[size];
+            data.get(bytes);
+            return bytes;
+        }
+        // Inflater in nowrap mode wants one byte past the end of the deflate stream.
+        byte[] compressed = new byte[compressedSize + 1];
+        data.get(compressed, 0, compressedSize);
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] bytes = new byte[size];
+            int read = 0;
+            while (read < size && !inflater.finished()) {
+                int n = inflater.inflate(bytes, read, size - read);
+                if (n == 0) break;
+                read += n;
+            }
+            if (read != size) {
+                throw new IOException("Truncated entry in " + jar + ": " + binaryName);
+            }
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt entry in " + jar + ": " + binaryName, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** The API hash {@link AbiHasher} computed for {@code binaryName}, truncated to 64 bits. */
+    public long getApiHash(String binaryName) {
+        int type = findType(binaryName);
+        return type < 0 ? 0 : index.getLong(typeRecord(type) + 28);
+    }
+
+    /**
+     * A hash over the API of every class in the jar. Two jars with the same hash compile the same
+     * sources to the same class files, whatever their timestamps.
+     */
+    public String getApiHash() {
+        byte[] hash = new byte[16];
+        for (int i = 0; i < hash.length; i++) {
+            hash[i] = index.get(44 + i);
+        }
+        return IncrementalCompiler.toHex(hash);
+    }
+
+    private synchronized ByteBuffer jarData() throws IOException {
+        if (jarData == null) {
+            jarData = map(jar);
+        }
+        return jarData;
+    }
+
+    private int findPackage(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = packageCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareName(packageRecord(mid), key);
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    private int findType(String binaryName) {
+        int slash = binaryName.lastIndexOf('/');
+        int pkg = findPackage(slash < 0 ? "" : binaryName.substring(0, slash));
+        if (pkg < 0) return -1;
+        byte[] key = binaryName.substring(slash + 1).getBytes(StandardCharsets.UTF_8);
+        int record = packageRecord(pkg);
+        int low = index.getInt(record + 8);
+        int high = low + index.getInt(record + 12) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareName(typeRecord(mid), key);
+            if (cmp < 0) low = mid + 1;
+            else if (cmp > 0) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    private int packageRecord(int i) {
+        return packagesOffset + i * PACKAGE_SIZE;
+    }
+
+    private int typeRecord(int i) {
+        return typesOffset + i * TYPE_SIZE;
+    }
+
+    private int compareName(int record, byte[] key) {
+        int offset = namesOffset + index.getInt(record);
+        int length = index.getInt(record + 4);
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (index.get(offset + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return length - key.length;
+    }
+
+    private String name(int record) {
+        byte[] bytes = new byte[index.getInt(record + 4)];
+        int offset = namesOffset + index.getInt(record);
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = index.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static final class Entry {
+        final String simpleName;
+        final long offset;
+        final int compressedSize;
+        final int size;
+        final int method;
+
+        Entry(String simpleName, long offset, int compressedSize, int size, int method) {
+            this.simpleName = simpleName;
+            this.offset = offset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.method = method;
+        }
+    }
+
+    private static byte[] build(File jar) throws IOException {
+        long length = jar.length();
+        long modified = jar.lastModified();
+        ByteBuffer zip = map(jar).order(ByteOrder.LITTLE_ENDIAN);
+
+        int eocd = -1;
+        for (int i = zip.capacity() - 22; i >= Math.max(0, zip.capacity() - 22 - 0xffff); i--) {
+            if (zip.getInt(i) == 0x06054b50) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) throw new IOException("Not a zip file: " + jar);
+        int entries = zip.getShort(eocd + 10) & 0xffff;
+        long directory = zip.getInt(eocd + 16) & 0xffffffffL;
+        if (entries == 0xffff || directory == 0xffffffffL) {
+            throw new IOException("Zip64 jars are not supported: " + jar);
+        }
+
+        // Package -> simple name -> entry, in UTF-8 byte order for binary search.
+        Map<String, Map<String, Entry>> packages = new TreeMap<>(JarIndex::compareUtf8);
+        int pos = (int) directory;
+        for (int i = 0; i < entries; i++) {
+            if (zip.getInt(pos) != 0x02014b50) throw new IOException("Corrupt zip: " + jar);
+            int flags = zip.getShort(pos + 8) & 0xffff;
+            int method = zip.getShort(pos + 10) & 0xffff;
+            int compressedSize = zip.getInt(pos + 20);
+            int size = zip.getInt(pos + 24);
+            int nameLength = zip.getShort(pos + 28) & 0xffff;
+            int extraLength = zip.getShort(pos + 30) & 0xffff;
+            int commentLength = zip.getShort(pos + 32) & 0xffff;
+            long offset = zip.getInt(pos + 42) & 0xffffffffL;
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer name = zip.duplicate();
+            name.position(pos + 46);
+            name.get(nameBytes);
+            pos += 46 + nameLength + extraLength + commentLength;
+
+            String path = new String(nameBytes, StandardCharsets.UTF_8);
+            if (!path.endsWith(".class")
+                    || path.startsWith("META-INF/")
+                    || path.endsWith("module-info.class")) {
+                continue;
+            }
+            if ((flags & 1) != 0 || (method != 0 && method != 8)) {
+                throw new IOException("Unsupported entry " + path + " in " + jar);
+            }
+            String binaryName = path.substring(0, path.length() - ".class".length());
+            int slash = binaryName.lastIndexOf('/');
+            String pkg = slash < 0 ? "" : binaryName.substring(0, slash);
+            // Parent packages resolve as packages too, as they do in ECJ.
+            for (String p = pkg; ; p = p.substring(0, Math.max(0, p.lastIndexOf('/')))) {
+                if (packages.containsKey(p)) break;
+                packages.put(p, new TreeMap<>(JarIndex::compareUtf8));
+                if (p.isEmpty()) break;
+            }
+            packages.get(pkg)
+                    .putIfAbsent(
+                            binaryName.substring(slash + 1),
+                            new Entry(
+                                    binaryName.substring(slash + 1),
+                                    offset,
+                                    compressedSize,
+                                    size,
+                                    method));
+        }
+
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        ByteArrayOutputStream packageTable = new ByteArrayOutputStream();
+        ByteArrayOutputStream typeTable = new ByteArrayOutputStream();
+        DataOutputStream packageOut = new DataOutputStream(packageTable);
+        DataOutputStream typeOut = new DataOutputStream(typeTable);
+        MessageDigest api = IncrementalCompiler.newDigest();
+        int typeCount = 0;
+        for (Map.Entry<String, Map<String, Entry>> pkg : packages.entrySet()) {
+            byte[] pkgName = pkg.getKey().getBytes(StandardCharsets.UTF_8);
+            packageOut.writeInt(names.size());
+            packageOut.writeInt(pkgName.length);
+            packageOut.writeInt(typeCount);
+            packageOut.writeInt(pkg.getValue().size());
+            names.write(pkgName);
+            for (Entry entry : pkg.getValue().values()) {
+                byte[] typeName = entry.simpleName.getBytes(StandardCharsets.UTF_8);
+                typeOut.writeInt(names.size());
+                typeOut.writeInt(typeName.length);
+                typeOut.writeLong(entry.offset);
+                typeOut.writeInt(entry.compressedSize);
+                typeOut.writeInt(entry.size);
+                typeOut.writeShort(entry.method);
+                typeOut.writeShort(0);
+                typeOut.writeLong(0); // API hash, filled in below
+                names.write(typeName);
+                typeCount++;
+            }
+        }
+
+        ByteBuffer out =
+                ByteBuffer.allocate(
+                        HEADER_SIZE + packageTable.size() + typeTable.size() + names.size());
+        out.putInt(MAGIC).putInt(VERSION).putLong(length).putLong(modified);
+        out.putInt(packages.size()).putInt(typeCount);
+        out.putInt(HEADER_SIZE);
+        out.putInt(HEADER_SIZE + packageTable.size());
+        out.putInt(HEADER_SIZE + packageTable.size() + typeTable.size());
+        out.position(HEADER_SIZE);
+        out.put(packageTable.toByteArray()).put(typeTable.toByteArray()).put(names.toByteArray());
+
+        // Hash every class through the finished tables, which is also a check of the offsets.
+        JarIndex reader = new JarIndex(jar, out);
+        reader.jarData = zip;
+        List<String> types = reader.getTypes();
+        for (int t = 0; t < types.size(); t++) {
+            String type = types.get(t);
+            String hash = AbiHasher.hash(type + ".class", reader.readClass(type));
+            long apiHash = Long.parseUnsignedLong(hash.substring(0, 16), 16);
+            out.putLong(reader.typeRecord(t) + 28, apiHash);
+            api.update(type.getBytes(StandardCharsets.UTF_8));
+            api.update(hash.getBytes(StandardCharsets.US_ASCII));
+        }
+        byte[] digest = Arrays.copyOf(api.digest(), 16);
+        for (int i = 0; i < digest.length; i++) {
+            out.put(44 + i, digest[i]);
+        }
+        return out.array();
+    }
+
+    private static int compareUtf8(String a, String b) {
+        byte[] x = a.getBytes(StandardCharsets.UTF_8);
+        byte[] y = b.getBytes(StandardCharsets.UTF_8);
+        int n = Math.min(x.length, y.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (x[i] & 0xff) - (y[i] & 0xff);
+            if (cmp != 0) return cmp;
+        }
+        return x.length - y.length;
+    }
+}
@@ -6,15 +6,46 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import org.eclipse.jdt.core.compiler.CompilationProgress;
-import org.eclipse.jdt.internal.compiler.batch.Main;
+import org.eclipse.jdt.internal.compiler.CompilationResult;
 
 public final class JavaCompiler {
-    
+
+    public static final String VERSION = "ecj-3.41.0-mod";
+
+    /**
+     * Receives every compilation unit result just before its class files are written. Class files
+     * are recycled afterwards, so listeners must copy anything they keep.
+     */
+    public interface ResultListener {
+        void onResult(CompilationResult result);
+    }
+
+    /** Receives the bytes of every class the compiler emits, keyed by binary name. */
+    public interface ClassConsumer {
+        void accept(String binaryName, byte[] bytes);
+    }
+
+    /**
+     * Receives problems as the compiler finds them, in place of the text the error writer would
+     * otherwise get. Called from the compiling thread.
+     */
+    public interface DiagnosticListener {
+        void report(JavacDiagnostic diagnostic);
+    }
+
     private PrintWriter outputWriter;
     private PrintWriter errorWriter;
     private boolean isSystemExitEnabled;
     private Map<String, String> errorCodes;
     private CompilationProgress progressMonitor;
+    private ResultListener resultListener;
+    private ClassConsumer classConsumer;
+    private boolean writeClassFiles = true;
+    private CompilerSession session;
+    private int workers;
+    private DiagnosticListener diagnosticListener;
+    private int maxErrors;
+    private boolean reportWarnings = true;
 
     public JavaCompiler() {
         this(new PrintWriter(System.out), new PrintWriter(System.err));
@@ -38,9 +69,18 @@ public final class JavaCompiler {
     }
 
     public boolean compile(String... options) {
-        Main compiler =
-                new Main(outputWriter, errorWriter, isSystemExitEnabled, errorCodes, progressMonitor);
-        return compiler.compile(options);
+        if (!reportWarnings) {
+            String[] all = new String[options.length + 1];
+            all[0] = "-nowarn";
+            System.arraycopy(options, 0, all, 1, options.length);
+            options = all;
+        }
+        if (session == null) {
+            return new CompilerMain(this).compile(options);
+        }
+        synchronized (session) {
+            return new CompilerMain(this).compile(options);
+        }
     }
 
     public boolean compile(List<String> options) {
@@ -57,6 +97,20 @@ public final class JavaCompiler {
         return compile(options);
     }
 
+    /**
+     * Parses the {@code .java} files in {@code sourcePaths}, which may be files or directories,
+     * and reports their syntax problems the way {@link #compile} reports problems. Nothing is
+     * resolved against a classpath and no class files are written, so this takes a fraction of a
+     * compile.
+     *
+     * @param sourceLevel Java version the sources are written in, such as {@code "17"}
+     * @return whether no syntax errors were found
+     */
+    public boolean checkSyntax(List<String> sourcePaths, String sourceLevel) {
+        Map<String, File> sources = IncrementalCompiler.collectSources(sourcePaths);
+        return new SyntaxChecker(this, sourceLevel).check(new ArrayList<>(sources.values()));
+    }
+
     public PrintWriter getOutputWriter() {
         return this.outputWriter;
     }
@@ -96,4 +150,84 @@ public final class JavaCompiler {
     public void setProgressMonitor(CompilationProgress progressMonitor) {
         this.progressMonitor = progressMonitor;
     }
-}
\ No newline at end of file
+
+    public ResultListener getResultListener() {
+        return this.resultListener;
+    }
+
+    public void setResultListener(ResultListener resultListener) {
+        this.resultListener = resultListener;
+    }
+
+    public ClassConsumer getClassConsumer() {
+        return this.classConsumer;
+    }
+
+    /** Hands emitted class bytes to {@code classConsumer}, in addition to or instead of disk. */
+    public void setClassConsumer(ClassConsumer classConsumer) {
+        this.classConsumer = classConsumer;
+    }
+
+    public boolean isWriteClassFiles() {
+        return this.writeClassFiles;
+    }
+
+    public void setWriteClassFiles(boolean writeClassFiles) {
+        this.writeClassFiles = writeClassFiles;
+    }
+
+    public DiagnosticListener getDiagnosticListener() {
+        return this.diagnosticListener;
+    }
+
+    public void setDiagnosticListener(DiagnosticListener diagnosticListener) {
+        this.diagnosticListener = diagnosticListener;
+    }
+
+    public int getMaxErrors() {
+        return this.maxErrors;
+    }
+
+    /**
+     * Stops compiling once {@code maxErrors} errors were found, and only reports that many to the
+     * diagnostic listener. 0, the default, means no limit.
+     */
+    public void setMaxErrors(int maxErrors) {
+        if (maxErrors < 0) throw new IllegalArgumentException("maxErrors < 0: " + maxErrors);
+        this.maxErrors = maxErrors;
+    }
+
+    public boolean isReportWarnings() {
+        return this.reportWarnings;
+    }
+
+    /** With warnings off the compiler does not even look for them, as with {@code -nowarn}. */
+    public void setReportWarnings(boolean reportWarnings) {
+        this.reportWarnings = reportWarnings;
+    }
+
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    /**
+     * Threads a compilation may keep busy at once. 1 keeps parsing, resolving and code generation
+     * on the calling thread. N above 1 outline-parses the sources on N threads up front, then
+     * resolves on the calling thread while ECJ generates code on one thread of its own, so never
+     * more than N work at the same time. 0, the default, parses on the common fork/join pool and
+     * leaves the rest to ECJ.
+     */
+    public void setWorkers(int workers) {
+        if (workers < 0) throw new IllegalArgumentException("workers < 0: " + workers);
+        this.workers = workers;
+    }
+
+    public CompilerSession getSession() {
+        return this.session;
+    }
+
+    /** Reuses the jars and binary types cached in {@code session} instead of reopening them. */
+    public void setSession(CompilerSession session) {
+        this.session = session;
+    }
+}
@@ -0,0 +1,82 @@
+package org.xedox.javac;
+
+import java.util.Locale;
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+import org.eclipse.jdt.internal.compiler.problem.DefaultProblem;
+
+/**
+ * One problem reported by the compiler. Lines and columns are 1-based, positions are character
+ * offsets into the source; all of them are -1 when unknown. {@link #problemId} is ECJ's {@code
+ * IProblem} id, stable across messages and locales.
+ */
+public class JavacDiagnostic {
+
+    public enum Severity {
+        ERROR,
+        WARNING,
+        INFO
+    }
+
+    public final Severity severity;
+    public final String path;
+    public final int line;
+    public final int column;
+    public final int startPosition;
+    public final int endPosition;
+    public final int problemId;
+    public final String message;
+
+    public JavacDiagnostic(
+            Severity severity,
+            String path,
+            int line,
+            int column,
+            int startPosition,
+            int endPosition,
+            int problemId,
+            String message) {
+        this.severity = severity;
+        this.path = path;
+        this.line = line;
+        this.column = column;
+        this.startPosition = startPosition;
+        this.endPosition = endPosition;
+        this.problemId = problemId;
+        this.message = message;
+    }
+
+    static JavacDiagnostic of(CategorizedProblem problem) {
+        Severity severity =
+                problem.isError()
+                        ? Severity.ERROR
+                        : problem.isInfo() ? Severity.INFO : Severity.WARNING;
+        char[] fileName = problem.getOriginatingFileName();
+        return new JavacDiagnostic(
+                severity,
+                fileName != null ? new String(fileName) : null,
+                problem.getSourceLineNumber() > 0 ? problem.getSourceLineNumber() : -1,
+                problem instanceof DefaultProblem
+                        ? ((DefaultProblem) problem).getSourceColumnNumber()
+                        : -1,
+                problem.getSourceStart(),
+                problem.getSourceEnd(),
+                problem.getID(),
+                problem.getMessage());
+    }
+
+    public boolean isError() {
+        return severity == Severity.ERROR;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (path != null) {
+            sb.append(path);
+            if (line >= 0) sb.append(':').append(line);
+            if (line >= 0 && column >= 0) sb.append(':').append(column);
+            sb.append(": ");
+        }
+        return sb.append(severity.name().toLowerCase(Locale.ROOT)).append(": ").append(message).toString();
+    }
+}
@@ -0,0 +1,131 @@
+package org.xedox.javac;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+import org.eclipse.jdt.internal.compiler.Compiler;
+import org.eclipse.jdt.internal.compiler.ast.CompilationUnitDeclaration;
+import org.eclipse.jdt.internal.compiler.env.ICompilationUnit;
+import org.eclipse.jdt.internal.compiler.parser.Parser;
+import org.eclipse.jdt.internal.compiler.parser.ParserPool;
+import org.eclipse.jdt.internal.compiler.problem.ProblemReporter;
+
+/**
+ * Diet-parses all units of a compilation on a fork/join pool before the Compiler asks for them, so
+ * the Compiler goes on to build type bindings as soon as it has its own parser back. Each worker
+ * parses with its own Parser and ProblemReporter; the parser tables they share are static and
+ * only written while the Parser class initializes.
+ */
+final class PrefetchingParser extends Parser {
+    /** Fewer units than this are parsed faster than a pool can be put to work. */
+    static final int MIN_UNITS = 10;
+
+    private final Compiler compiler;
+    private final Map<ICompilationUnit, CompilationUnitDeclaration> parsed =
+            new IdentityHashMap<>();
+
+    PrefetchingParser(Compiler compiler) {
+        super(compiler.problemReporter, compiler.options.parseLiteralExpressionsAsConstants);
+        this.compiler = compiler;
+    }
+
+    /**
+     * Parses {@code units}, which the Compiler will receive in this order, and keeps the result for
+     * {@link #dietParse}. Units that fail here are left for the Compiler to parse and report.
+     */
+    void prefetch(ICompilationUnit[] units, ForkJoinPool pool) {
+        CompilationUnitDeclaration[] results = new CompilationUnitDeclaration[units.length];
+        int batch = Math.max(1, units.length / (pool.getParallelism() * 4));
+        // Batches never join each other, so the pool has no reason to add compensating threads
+        // and parses on at most its parallelism.
+        List<Parse> batches = new ArrayList<>();
+        for (int from = 0; from < units.length; from += batch) {
+            Parse parse = new Parse(units, results, from, Math.min(units.length, from + batch));
+            pool.execute(parse);
+            batches.add(parse);
+        }
+        for (Parse parse : batches) {
+            parse.join();
+        }
+        for (int i = 0; i < units.length; i++) {
+            if (results[i] != null) {
+                // Later phases report through the unit's reporter; the worker's is gone.
+                results[i].problemReporter = compiler.problemReporter;
+                parsed.put(units[i], results[i]);
+            }
+        }
+    }
+
+    @Override
+    public CompilationUnitDeclaration dietParse(
+            ICompilationUnit sourceUnit, CompilationResult compilationResult) {
+        CompilationUnitDeclaration unit = parsed.remove(sourceUnit);
+        // Annotation processing or module sorting may hand units over in another order.
+        if (unit != null
+                && unit.compilationResult.unitIndex == compilationResult.unitIndex
+                && unit.compilationResult.totalUnitsKnown == compilationResult.totalUnitsKnown) {
+            return unit;
+        }
+        return super.dietParse(sourceUnit, compilationResult);
+    }
+
+    private final class Parse extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ICompilationUnit[] units;
+        private final CompilationUnitDeclaration[] results;
+        private final int from;
+        private final int to;
+
+        Parse(ICompilationUnit[] units, CompilationUnitDeclaration[] results, int from, int to) {
+            this.units = units;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            ProblemReporter reporter =
+                    new ProblemReporter(
+                            compiler.problemReporter.policy,
+                            compiler.options,
+                            compiler.problemReporter.problemFactory);
+            boolean optimizeStringLiterals = compiler.options.parseLiteralExpressionsAsConstants;
+            Parser parser = ParserPool.acquire(reporter, optimizeStringLiterals);
+            try {
+                for (int i = from; i < to; i++) {
+                    results[i] = parse(parser, i);
+                }
+            } finally {
+                ParserPool.release(parser);
+            }
+        }
+
+        private CompilationUnitDeclaration parse(Parser parser, int index) {
+            CompilationResult result =
+                    new CompilationResult(
+                            units[index],
+                            index,
+                            units.length,
+                            compiler.options.maxProblemsPerUnit);
+            try {
+                // As Compiler.beginToCompile does before a diet parse, so method bodies parsed
+                // later read the same contents.
+                result.cacheSource();
+                CompilationUnitDeclaration unit = parser.dietParse(units[index], result);
+                // The Compiler records this on the result it made for the unit, not on ours.
+                if (unit.currentPackage != null) {
+                    result.recordPackageName(unit.currentPackage.tokens);
+                }
+                return unit;
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package org.xedox.javac;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import org.eclipse.jdt.core.compiler.CharOperation;
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+import org.eclipse.jdt.internal.compiler.DefaultErrorHandlingPolicies;
+import org.eclipse.jdt.internal.compiler.ast.ASTNode;
+import org.eclipse.jdt.internal.compiler.ast.AbstractMethodDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.AbstractVariableDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.CompilationUnitDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.FieldDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.Initializer;
+import org.eclipse.jdt.internal.compiler.ast.TypeDeclaration;
+import org.eclipse.jdt.internal.compiler.batch.CompilationUnit;
+import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
+import org.eclipse.jdt.internal.compiler.lookup.TypeConstants;
+import org.eclipse.jdt.internal.compiler.parser.Parser;
+import org.eclipse.jdt.internal.compiler.problem.DefaultProblemFactory;
+import org.eclipse.jdt.internal.compiler.problem.ProblemReporter;
+import org.eclipse.jdt.internal.compiler.util.Util;
+
+/**
+ * The types, methods and fields declared in a source set, with their source ranges. Files are
+ * outline-parsed only, skipping method bodies, so refreshing one file costs a fraction of
+ * compiling it. Local and anonymous types live in method bodies and are not listed.
+ *
+ * <p>The index is kept in {@code indexFile} between runs; {@link #update(List)} reparses only the
+ * files whose size or timestamp moved since they were indexed.
+ */
+public final class SymbolIndex {
+    private static final int MAGIC = 0x544b5359; // TKSY
+    private static final int VERSION = 1;
+
+    public enum Kind {
+        CLASS,
+        INTERFACE,
+        ENUM,
+        ANNOTATION,
+        RECORD,
+        CONSTRUCTOR,
+        METHOD,
+        FIELD,
+        ENUM_CONSTANT
+    }
+
+    /**
+     * One declaration. {@link #container} is the dotted name of the declaring type, or of the
+     * package for top-level types. Positions are character offsets, lines are 1-based.
+     */
+    public static final class Symbol {
+        public final Kind kind;
+        public final String name;
+        public final String container;
+        public final String path;
+        public final int line;
+        public final int startPosition;
+        public final int endPosition;
+        public final int nameStart;
+        public final int nameEnd;
+
+        public Symbol(
+                Kind kind,
+                String name,
+                String container,
+                String path,
+                int line,
+                int startPosition,
+                int endPosition,
+                int nameStart,
+                int nameEnd) {
+            this.kind = kind;
+            this.name = name;
+            this.container = container;
+            this.path = path;
+            this.line = line;
+            this.startPosition = startPosition;
+            this.endPosition = endPosition;
+            this.nameStart = nameStart;
+            this.nameEnd = nameEnd;
+        }
+
+        public boolean isType() {
+            return kind.ordinal() <= Kind.RECORD.ordinal();
+        }
+
+        /** Dotted name of the symbol, including its container. */
+        public String getQualifiedName() {
+            return container.isEmpty() ? name : container + "." + name;
+        }
+
+        @Override
+        public String toString() {
+            return kind.name().toLowerCase(Locale.ROOT)
+                    + " "
+                    + getQualifiedName()
+                    + " ("
+                    + path
+                    + ":"
+                    + line
+                    + ")";
+        }
+    }
+
+    private static final class Entry {
+        final String stamp;
+        final List<Symbol> symbols;
+
+        Entry(String stamp, List<Symbol> symbols) {
+            this.stamp = stamp;
+            this.symbols = symbols;
+        }
+    }
+
+    private final File indexFile;
+    private final String sourceLevel;
+    private final Map<String, Entry> files = new TreeMap<>();
+    private final TreeMap<String, List<Symbol>> byName = new TreeMap<>();
+    private Parser parser;
+    private boolean dirty;
+
+    /**
+     * @param indexFile where the index is kept between runs
+     * @param sourceLevel Java version the sources are written in, such as {@code "17"}
+     */
+    public SymbolIndex(File indexFile, String sourceLevel) {
+        this.indexFile = indexFile;
+        this.sourceLevel = sourceLevel;
+        load();
+    }
+
+    /**
+     * Brings the index in line with the {@code .java} files under {@code sourcePaths}: reparses
+     * new and changed files and drops the ones that are gone.
+     *
+     * @return the number of files parsed
+     */
+    public synchronized int update(List<String> sourcePaths) throws IOException {
+        Map<String, File> sources = IncrementalCompiler.collectSources(sourcePaths);
+        for (String path : new ArrayList<>(files.keySet())) {
+            if (!sources.containsKey(path)) remove(new File(path));
+        }
+        int parsed = 0;
+        for (File file : sources.values()) {
+            if (update(file)) parsed++;
+        }
+        return parsed;
+    }
+
+    /** Reparses {@code file} if it changed since it was indexed, and returns whether it did. */
+    public synchronized boolean update(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        String stamp = file.length() + ":" + file.lastModified();
+        Entry entry = files.get(path);
+        if (entry != null && entry.stamp.equals(stamp)) return false;
+        String contents = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        put(path, new Entry(stamp, parse(path, contents.toCharArray())));
+        return true;
+    }
+
+    /**
+     * Indexes {@code contents} in place of what {@code file} holds on disk, as for an unsaved
+     * editor buffer. The next {@link #update(File)} reads the file again.
+     */
+    public synchronized void update(File file, String contents) {
+        String path = file.getAbsolutePath();
+        put(path, new Entry("", parse(path, contents.toCharArray())));
+    }
+
+    public synchronized void remove(File file) {
+        put(file.getAbsolutePath(), null);
+    }
+
+    /** Symbols declared in {@code file}, in source order. */
+    public synchronized List<Symbol> getSymbols(File file) {
+        Entry entry = files.get(file.getAbsolutePath());
+        return entry != null ? entry.symbols : Collections.emptyList();
+    }
+
+    /** Symbols with the simple name {@code name}. */
+    public synchronized List<Symbol> find(String name) {
+        List<Symbol> symbols = byName.get(name);
+        return symbols != null ? new ArrayList<>(symbols) : Collections.emptyList();
+    }
+
+    /** Symbols whose simple name starts with {@code prefix}, ordered by name. */
+    public synchronized List<Symbol> findByPrefix(String prefix) {
+        List<Symbol> result = new ArrayList<>();
+        for (List<Symbol> symbols : byName.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+            result.addAll(symbols);
+        }
+        return result;
+    }
+
+    public synchronized int getFileCount() {
+        return files.size();
+    }
+
+    /** Writes the index to its file if anything changed since it was loaded or last saved. */
+    public synchronized void save() throws IOException {
+        if (!dirty) return;
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        if (parent != null) parent.mkdirs();
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(JavaCompiler.VERSION);
+            out.writeUTF(sourceLevel);
+            out.writeInt(files.size());
+            for (Map.Entry<String, Entry> file : files.entrySet()) {
+                out.writeUTF(file.getKey());
+                out.writeUTF(file.getValue().stamp);
+                List<Symbol> symbols = file.getValue().symbols;
+                out.writeInt(symbols.size());
+                for (Symbol symbol : symbols) {
+                    out.writeByte(symbol.kind.ordinal());
+                    out.writeUTF(symbol.name);
+                    out.writeUTF(symbol.container);
+                    out.writeInt(symbol.line);
+                    out.writeInt(symbol.startPosition);
+                    out.writeInt(symbol.endPosition);
+                    out.writeInt(symbol.nameStart);
+                    out.writeInt(symbol.nameEnd);
+                }
+            }
+        }
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        dirty = false;
+    }
+
+    // A missing, truncated or outdated file leaves the index empty, to be rebuilt by update().
+    private void load() {
+        if (!indexFile.isFile()) return;
+        Map<String, Entry> loaded = new HashMap<>();
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC
+                    || in.readInt() != VERSION
+                    || !in.readUTF().equals(JavaCompiler.VERSION)
+                    || !in.readUTF().equals(sourceLevel)) {
+                return;
+            }
+            Kind[] kinds = Kind.values();
+            for (int i = in.readInt(); i > 0; i--) {
+                String path = in.readUTF();
+                String stamp = in.readUTF();
+                List<Symbol> symbols = new ArrayList<>();
+                for (int j = in.readInt(); j > 0; j--) {
+                    symbols.add(
+                            new Symbol(
+                                    kinds[in.readUnsignedByte()],
+                                    in.readUTF(),
+                                    in.readUTF(),
+                                    path,
+                                    in.readInt(),
+                                    in.readInt(),
+                                    in.readInt(),
+                                    in.readInt(),
+                                    in.readInt()));
+                }
+                loaded.put(path, new Entry(stamp, symbols));
+            }
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+        for (Map.Entry<String, Entry> entry : loaded.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+        dirty = false;
+    }
+
+    private void put(String path, Entry entry) {
+        Entry previous = entry != null ? files.put(path, entry) : files.remove(path);
+        if (previous != null) {
+            for (Symbol symbol : previous.symbols) {
+                List<Symbol> symbols = byName.get(symbol.name);
+                symbols.remove(symbol);
+                if (symbols.isEmpty()) byName.remove(symbol.name);
+            }
+        }
+        if (entry != null) {
+            for (Symbol symbol : entry.symbols) {
+                byName.computeIfAbsent(symbol.name, k -> new ArrayList<>()).add(symbol);
+            }
+        }
+        dirty |= previous != null || entry != null;
+    }
+
+    private List<Symbol> parse(String path, char[] contents) {
+        if (parser == null) parser = newParser(sourceLevel);
+        CompilationUnit source = new CompilationUnit(contents, path, null);
+        CompilationResult result = new CompilationResult(source, 0, 1, Integer.MAX_VALUE);
+        // Diet parsing jumps over method bodies; only declarations end up in the tree.
+        CompilationUnitDeclaration unit = parser.dietParse(source, result);
+
+        List<Symbol> symbols = new ArrayList<>();
+        if (unit.types != null) {
+            String container =
+                    unit.currentPackage != null
+                            ? new String(CharOperation.concatWith(unit.currentPackage.tokens, '.'))
+                            : "";
+            int[] lineEnds = result.getLineSeparatorPositions();
+            for (TypeDeclaration type : unit.types) {
+                addType(type, container, path, lineEnds, symbols);
+            }
+        }
+        return symbols;
+    }
+
+    /** A parser for sources at {@code sourceLevel} that records problems without aborting. */
+    static Parser newParser(String sourceLevel) {
+        Map<String, String> settings = new HashMap<>();
+        settings.put(CompilerOptions.OPTION_Source, sourceLevel);
+        settings.put(CompilerOptions.OPTION_Compliance, sourceLevel);
+        settings.put(CompilerOptions.OPTION_TargetPlatform, sourceLevel);
+        CompilerOptions options = new CompilerOptions(settings);
+        return new Parser(
+                new ProblemReporter(
+                        DefaultErrorHandlingPolicies.proceedWithAllProblems(),
+                        options,
+                        new DefaultProblemFactory(Locale.getDefault())),
+                false);
+    }
+
+    private static void addType(
+            TypeDeclaration type,
+            String container,
+            String path,
+            int[] lineEnds,
+            List<Symbol> symbols) {
+        // The type the parser makes up for annotations in package-info.java.
+        if (CharOperation.equals(type.name, TypeConstants.PACKAGE_INFO_NAME)) return;
+        String name = new String(type.name);
+        symbols.add(
+                symbol(
+                        typeKind(type),
+                        name,
+                        container,
+                        path,
+                        lineEnds,
+                        type.declarationSourceStart,
+                        type.declarationSourceEnd,
+                        type.sourceStart,
+                        type.sourceEnd));
+        String qualifiedName = container.isEmpty() ? name : container + "." + name;
+        if (type.fields != null) {
+            for (FieldDeclaration field : type.fields) {
+                if (field instanceof Initializer) continue;
+                symbols.add(
+                        symbol(
+                                field.getKind() == AbstractVariableDeclaration.ENUM_CONSTANT
+                                        ? Kind.ENUM_CONSTANT
+                                        : Kind.FIELD,
+                                new String(field.name),
+                                qualifiedName,
+                                path,
+                                lineEnds,
+                                field.declarationSourceStart,
+                                field.declarationSourceEnd,
+                                field.sourceStart,
+                                field.sourceEnd));
+            }
+        }
+        if (type.methods != null) {
+            for (AbstractMethodDeclaration method : type.methods) {
+                // Default and implicit record constructors have no source of their own.
+                if (method.isDefaultConstructor() || method.isClinit()) continue;
+                if ((method.bits & ASTNode.IsImplicit) != 0) continue;
+                symbols.add(
+                        symbol(
+                                method.isConstructor() ? Kind.CONSTRUCTOR : Kind.METHOD,
+                                new String(method.selector),
+                                qualifiedName,
+                                path,
+                                lineEnds,
+                                method.declarationSourceStart,
+                                method.declarationSourceEnd,
+                                method.sourceStart,
+                                method.sourceEnd));
+            }
+        }
+        if (type.memberTypes != null) {
+            for (TypeDeclaration member : type.memberTypes) {
+                addType(member, qualifiedName, path, lineEnds, symbols);
+            }
+        }
+    }
+
+    private static Symbol symbol(
+            Kind kind,
+            String name,
+            String container,
+            String path,
+            int[] lineEnds,
+            int start,
+            int end,
+            int nameStart,
+            int nameEnd) {
+        int line =
+                lineEnds != null
+                        ? Util.getLineNumber(nameStart, lineEnds, 0, lineEnds.length - 1)
+                        : 1;
+        return new Symbol(kind, name, container, path, line, start, end, nameStart, nameEnd);
+    }
+
+    private static Kind typeKind(TypeDeclaration type) {
+        switch (TypeDeclaration.kind(type.modifiers)) {
+            case TypeDeclaration.INTERFACE_DECL:
+                return Kind.INTERFACE;
+            case TypeDeclaration.ENUM_DECL:
+                return Kind.ENUM;
+            case TypeDeclaration.ANNOTATION_TYPE_DECL:
+                return Kind.ANNOTATION;
+            case TypeDeclaration.RECORD_DECL:
+                return Kind.RECORD;
+            default:
+                return Kind.CLASS;
+        }
+    }
+}
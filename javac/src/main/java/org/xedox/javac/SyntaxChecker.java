@@ -0,0 +1,101 @@
+package org.xedox.javac;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+import org.eclipse.jdt.internal.compiler.batch.CompilationUnit;
+import org.eclipse.jdt.internal.compiler.parser.Parser;
+
+/**
+ * Parses sources on their own, with no classpath, no lookup environment and no code generation,
+ * for {@link JavaCompiler#checkSyntax}.
+ */
+final class SyntaxChecker {
+    private final JavaCompiler javac;
+    private final String sourceLevel;
+
+    SyntaxChecker(JavaCompiler javac, String sourceLevel) {
+        this.javac = javac;
+        this.sourceLevel = sourceLevel;
+    }
+
+    boolean check(List<File> files) {
+        List<List<JavacDiagnostic>> results = parseAll(files);
+        // Reported in file order whatever order the workers finished in.
+        int errors = 0;
+        PrintWriter errorWriter = javac.getErrorWriter();
+        for (List<JavacDiagnostic> diagnostics : results) {
+            for (JavacDiagnostic diagnostic : diagnostics) {
+                if (diagnostic.isError()) {
+                    errors++;
+                    if (javac.getMaxErrors() > 0 && errors > javac.getMaxErrors()) continue;
+                } else if (!javac.isReportWarnings()) {
+                    continue;
+                }
+                if (javac.getDiagnosticListener() != null) {
+                    javac.getDiagnosticListener().report(diagnostic);
+                } else if (errorWriter != null) {
+                    errorWriter.println(diagnostic);
+                }
+            }
+        }
+        if (errorWriter != null) errorWriter.flush();
+        return errors == 0;
+    }
+
+    private List<List<JavacDiagnostic>> parseAll(List<File> files) {
+        List<List<JavacDiagnostic>> results = new ArrayList<>(files.size());
+        int workers = javac.getWorkers();
+        if (workers == 1 || files.size() < PrefetchingParser.MIN_UNITS) {
+            Parser parser = SymbolIndex.newParser(sourceLevel);
+            for (File file : files) {
+                results.add(parse(parser, file));
+            }
+            return results;
+        }
+
+        results.addAll(Collections.nCopies(files.size(), null));
+        ThreadLocal<Parser> parsers =
+                ThreadLocal.withInitial(() -> SymbolIndex.newParser(sourceLevel));
+        ForkJoinPool pool = workers == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(workers);
+        // A parallel stream started from inside a pool runs on that pool.
+        Runnable parseAll =
+                () ->
+                        IntStream.range(0, files.size())
+                                .parallel()
+                                .forEach(i -> results.set(i, parse(parsers.get(), files.get(i))));
+        try {
+            pool.submit(parseAll).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while checking syntax", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            if (pool != ForkJoinPool.commonPool()) pool.shutdown();
+        }
+        return results;
+    }
+
+    private static List<JavacDiagnostic> parse(Parser parser, File file) {
+        // Read with the default encoding, as the batch compiler does without -encoding.
+        CompilationUnit unit = new CompilationUnit(null, file.getPath(), null);
+        CompilationResult result = new CompilationResult(unit, 0, 1, Integer.MAX_VALUE);
+        // The same two passes as a compile, so the same problems come out.
+        parser.getMethodBodies(parser.dietParse(unit, result));
+        if (result.problemCount == 0) return Collections.emptyList();
+        List<JavacDiagnostic> diagnostics = new ArrayList<>(result.problemCount);
+        for (int i = 0; i < result.problemCount; i++) {
+            CategorizedProblem problem = result.problems[i];
+            if (problem != null) diagnostics.add(JavacDiagnostic.of(problem));
+        }
+        return diagnostics;
+    }
+}
@@ -0,0 +1,107 @@
+package org.eclipse.jdt.internal.compiler.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+import org.eclipse.jdt.internal.compiler.DefaultErrorHandlingPolicies;
+import org.eclipse.jdt.internal.compiler.ast.CompilationUnitDeclaration;
+import org.eclipse.jdt.internal.compiler.batch.CompilationUnit;
+import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
+import org.eclipse.jdt.internal.compiler.problem.DefaultProblemFactory;
+import org.eclipse.jdt.internal.compiler.problem.ProblemReporter;
+import org.junit.Test;
+
+public class ParserPoolTest {
+
+    @Test
+    public void pooledParsersProduceTheSameTrees() {
+        List<String> sources = sources();
+        List<String> fresh = new ArrayList<>();
+        for (String source : sources) {
+            fresh.add(parse(new Parser(newReporter(), false), source));
+        }
+
+        List<String> pooled = new ArrayList<>();
+        for (int round = 0; round < 2; round++) {
+            for (String source : sources) {
+                Parser parser = ParserPool.acquire(newReporter(), false);
+                pooled.add(parse(parser, source));
+                ParserPool.release(parser);
+            }
+        }
+        assertEquals(fresh, pooled.subList(0, sources.size()));
+        assertEquals(fresh, pooled.subList(sources.size(), pooled.size()));
+    }
+
+    @Test
+    public void nextParserOnTheThreadTakesTheGrownStacks() {
+        Parser first = ParserPool.acquire(newReporter(), false);
+        parse(first, deeplyNested(200));
+        ParserPool.release(first);
+
+        Parser second = ParserPool.acquire(newReporter(), false);
+        assertNotSame(first, second);
+        assertSame(first.stack, second.stack);
+        assertSame(first.expressionStack, second.expressionStack);
+        for (Object node : second.astStack) {
+            assertNull(node);
+        }
+        ParserPool.release(second);
+    }
+
+    private static String parse(Parser parser, String source) {
+        CompilationUnit unit = new CompilationUnit(source.toCharArray(), "Test.java", "UTF-8");
+        CompilationResult result = new CompilationResult(unit, 0, 1, 100);
+        CompilationUnitDeclaration declaration = parser.parse(unit, result);
+        return declaration + "\n" + result.problemCount;
+    }
+
+    private static ProblemReporter newReporter() {
+        Map<String, String> settings = new HashMap<>();
+        settings.put(CompilerOptions.OPTION_Source, CompilerOptions.VERSION_17);
+        settings.put(CompilerOptions.OPTION_Compliance, CompilerOptions.VERSION_17);
+        return new ProblemReporter(
+                DefaultErrorHandlingPolicies.proceedWithAllProblems(),
+                new CompilerOptions(settings),
+                new DefaultProblemFactory());
+    }
+
+    // Small and large units in turn, so later parsers start with stacks grown by earlier ones.
+    private static List<String> sources() {
+        List<String> sources = new ArrayList<>();
+        sources.add("class A { int f() { return 1; } }");
+        sources.add(deeplyNested(300));
+        sources.add(
+                "import java.util.*; class B<T extends Comparable<T>> {"
+                        + " @Deprecated List<Map<String, List<T>>> m() { return null; }"
+                        + " void g() { Runnable r = () -> { int x = 0; }; r.run(); } }");
+        sources.add(longExpression(2000));
+        sources.add("class C { void broken( { int x = ; } }");
+        sources.add(
+                "record R(int a, String b) {"
+                        + " R { if (a < 0) throw new IllegalArgumentException(); } }");
+        sources.add("class D { Object o = switch (1) { case 1 -> \"one\"; default -> null; }; }");
+        return sources;
+    }
+
+    private static String deeplyNested(int depth) {
+        StringBuilder body = new StringBuilder("class Deep { void f(int x) {");
+        for (int i = 0; i < depth; i++) body.append("if (x > ").append(i).append(") {");
+        body.append("x++;");
+        for (int i = 0; i < depth; i++) body.append('}');
+        return body.append("} }").toString();
+    }
+
+    private static String longExpression(int terms) {
+        StringBuilder expression = new StringBuilder("class Sum { int s = 0");
+        for (int i = 0; i < terms; i++) expression.append(" + (").append(i).append(" * 2)");
+        return expression.append("; }").toString();
+    }
+}
@@ -0,0 +1,83 @@
+package org.eclipse.jdt.internal.compiler.parser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cold-start cost of the parser tables: every sample is a fresh JVM that initializes {@link
+ * Parser} once, with the packed {@code parser.tables} on the classpath or, with it left off, from
+ * the {@code .rsc} files. Run with {@code gradle :javac:parserTablesBenchmark}, optionally with
+ * {@code -Pruns=N}.
+ */
+public final class ParserTablesBenchmark {
+    private static final String PACKED = "packed";
+    private static final String RSC = "rsc";
+
+    private ParserTablesBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("sample")) {
+            sample(args[1]);
+            return;
+        }
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        for (String mode : new String[] {PACKED, RSC}) {
+            long[] micros = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                micros[i] = fork(mode);
+            }
+            Arrays.sort(micros);
+            System.out.printf(
+                    "%-6s median %6d us, min %6d us, max %6d us over %d JVMs%n",
+                    mode, micros[runs / 2], micros[0], micros[runs - 1], runs);
+        }
+    }
+
+    private static void sample(String mode) throws ClassNotFoundException {
+        boolean packed = ParserTablesBenchmark.class.getResource(ParserTables.RESOURCE) != null;
+        if (packed != mode.equals(PACKED)) {
+            throw new IllegalStateException("parser.tables present: " + packed);
+        }
+        long start = System.nanoTime();
+        Class.forName(Parser.class.getName(), true, ParserTablesBenchmark.class.getClassLoader());
+        System.out.println((System.nanoTime() - start) / 1000);
+    }
+
+    private static long fork(String mode) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(classPath(mode.equals(PACKED)));
+        command.add(ParserTablesBenchmark.class.getName());
+        command.add("sample");
+        command.add(mode);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String line;
+        try (BufferedReader reader =
+                new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            line = reader.readLine();
+        }
+        if (process.waitFor() != 0 || line == null) {
+            throw new IllegalStateException("Sample failed: " + line);
+        }
+        return Long.parseLong(line.trim());
+    }
+
+    // Without the directory that holds parser.tables, Parser falls back to the .rsc files.
+    private static String classPath(boolean packed) {
+        String resource =
+                Parser.class.getPackage().getName().replace('.', '/') + "/" + ParserTables.RESOURCE;
+        List<String> entries = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (packed || !new File(entry, resource).isFile()) entries.add(entry);
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+}
@@ -0,0 +1,37 @@
+package org.eclipse.jdt.internal.compiler.parser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+
+public class ParserTablesTest {
+
+    @Test
+    public void packedTablesEqualRscTables() throws IOException {
+        assertTrue("parser.tables is missing or stale", ParserTables.load());
+        char[] packedLhs = Parser.lhs;
+        String[] packedNames = Parser.name;
+        String[] packedReadableNames = Parser.readableName;
+        assertSame(Parser.lhs, Parser.base_action);
+        byte[] packed = write();
+
+        Parser.initRscTables();
+        assertNotSame(packedLhs, Parser.lhs);
+        assertArrayEquals(packedLhs, Parser.base_action);
+        assertArrayEquals(packedNames, Parser.name);
+        assertArrayEquals(packedReadableNames, Parser.readableName);
+        // write() covers every other table, in a fixed order.
+        assertArrayEquals(packed, write());
+    }
+
+    private static byte[] write() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParserTables.write(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,96 @@
+package org.xedox.javac;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AbiHasherTest {
+    private static final String TAG =
+            "@java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME)\n"
+                    + "@interface Tag { int value(); }\n";
+    private static final String BASE =
+            "public class T implements Runnable {\n"
+                    + "    public static final int X = 1;\n"
+                    + "    private int hidden;\n"
+                    + "    public void run() { System.out.println(hidden); }\n"
+                    + "    @Tag(1) protected int size(String s) { return s.length(); }\n"
+                    + "}\n";
+    private static final String RECORD = "public record T(int a, String b) {}\n";
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    private int compiles;
+
+    @Test
+    public void implementationEditsKeepTheHash() throws IOException {
+        String base = hash(BASE);
+        assertEquals(base, hash(BASE.replace("println(hidden)", "println(hidden + 1)")));
+        assertEquals(
+                base,
+                hash(BASE.replace("return s.length();", "Runnable r = () -> {}; return 0;")));
+        assertEquals(base, hash(BASE.replace("private int hidden;", "private long hidden;")));
+        String privateMethod = "private int hidden; private void m() {}";
+        assertEquals(base, hash(BASE.replace("private int hidden;", privateMethod)));
+        assertEquals(hash(RECORD), hash(RECORD.replace("{}", "{ private static int n; }")));
+    }
+
+    @Test
+    public void apiEditsChangeTheHash() throws IOException {
+        String base = hash(BASE);
+        String[][] edits = {
+            {"X = 1", "X = 2"},
+            {"size(String s)", "size(CharSequence s)"},
+            {"protected int size", "protected long size"},
+            {"protected int size", "public int size"},
+            {"public class T", "public final class T"},
+            {"implements Runnable", "implements Runnable, Cloneable"},
+            {"public class T implements", "public class T extends Thread implements"},
+            {"@Tag(1)", "@Tag(2)"},
+            {"@Tag(1)", "@Deprecated @Tag(1)"},
+            {"private int hidden;", "int hidden;"},
+        };
+        for (String[] edit : edits) {
+            assertTrue(edit[0], BASE.contains(edit[0]));
+            assertNotEquals(edit[1], base, hash(BASE.replace(edit[0], edit[1])));
+        }
+
+        String record = hash(RECORD);
+        assertNotEquals(record, hash(RECORD.replace("int a", "long a")));
+        assertNotEquals(record, hash(RECORD.replace("String b", "String c")));
+        assertNotEquals(record, hash(RECORD.replace("String b", "String b, int c")));
+    }
+
+    // The ABI hash of class T compiled from source, next to the Tag annotation.
+    private String hash(String source) throws IOException {
+        File dir = temp.newFolder("compile" + compiles++);
+        File sourceDir = new File(dir, "src");
+        File classesDir = new File(dir, "classes");
+        write(new File(sourceDir, "p/T.java"), "package p;\n" + source);
+        write(new File(sourceDir, "p/Tag.java"), "package p;\n" + TAG);
+
+        StringWriter errors = new StringWriter();
+        JavaCompiler compiler =
+                new JavaCompiler(new PrintWriter(new StringWriter()), new PrintWriter(errors));
+        boolean success =
+                compiler.compile(
+                        "-17", "-proc:none", "-d", classesDir.getPath(), sourceDir.getPath());
+        assertTrue(errors.toString(), success);
+        byte[] bytes = Files.readAllBytes(new File(classesDir, "p/T.class").toPath());
+        return AbiHasher.hash("p/T.class", bytes);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,104 @@
+package org.xedox.javac;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompilerDeterminismTest {
+    private static final int PACKAGES = 6;
+    private static final int CLASSES_PER_PACKAGE = 12;
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void classFilesDoNotDependOnWorkers() throws IOException {
+        File sourceDir = temp.newFolder("src");
+        generateSources(sourceDir);
+
+        Map<String, byte[]> single = compile(sourceDir, 1);
+        assertEquals(PACKAGES * CLASSES_PER_PACKAGE * 2, single.size());
+        for (int workers : new int[] {4, 0}) {
+            Map<String, byte[]> parallel = compile(sourceDir, workers);
+            assertEquals(single.keySet(), parallel.keySet());
+            for (Map.Entry<String, byte[]> entry : single.entrySet()) {
+                assertArrayEquals(
+                        entry.getKey() + " with " + workers + " workers",
+                        entry.getValue(),
+                        parallel.get(entry.getKey()));
+            }
+        }
+    }
+
+    private Map<String, byte[]> compile(File sourceDir, int workers) throws IOException {
+        File outputDir = temp.newFolder("classes-" + workers);
+        StringWriter errors = new StringWriter();
+        JavaCompiler compiler =
+                new JavaCompiler(new PrintWriter(new StringWriter()), new PrintWriter(errors));
+        compiler.setWorkers(workers);
+        boolean success =
+                compiler.compile(
+                        "-8", "-proc:none", "-d", outputDir.getPath(), sourceDir.getPath());
+        assertTrue(errors.toString(), success);
+
+        Map<String, byte[]> classes = new TreeMap<>();
+        collect(outputDir, "", classes);
+        return classes;
+    }
+
+    private static void collect(File dir, String prefix, Map<String, byte[]> classes)
+            throws IOException {
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory()) {
+                collect(file, prefix + file.getName() + "/", classes);
+            } else {
+                classes.put(prefix + file.getName(), Files.readAllBytes(file.toPath()));
+            }
+        }
+    }
+
+    // Classes that reference their neighbours across packages, each with a lambda, an inner
+    // class, string switches and constants, so resolution order has something to get wrong.
+    private static void generateSources(File sourceDir) throws IOException {
+        for (int p = 0; p < PACKAGES; p++) {
+            for (int c = 0; c < CLASSES_PER_PACKAGE; c++) {
+                String next = "p" + ((p + 1) % PACKAGES) + ".C" + ((c + 1) % CLASSES_PER_PACKAGE);
+                StringBuilder source = new StringBuilder();
+                source.append("package p").append(p).append(";\n");
+                source.append("import java.util.*;\n");
+                source.append("public class C").append(c).append(" {\n");
+                source.append("    public static final int ID = ")
+                        .append(p * 100 + c)
+                        .append(";\n");
+                source.append("    private final List<String> names = new ArrayList<>();\n");
+                source.append("    public int next(String key) {\n");
+                source.append("        Runnable r = () -> names.add(key);\n");
+                source.append("        r.run();\n");
+                source.append("        switch (key) {\n");
+                source.append("            case \"a\": return ").append(next).append(".ID;\n");
+                source.append("            case \"b\": return new Inner().value();\n");
+                source.append("            default: return names.size();\n");
+                source.append("        }\n");
+                source.append("    }\n");
+                source.append("    class Inner {\n");
+                source.append("        int value() { return ID + names.size(); }\n");
+                source.append("    }\n");
+                source.append("}\n");
+                File file = new File(sourceDir, "p" + p + "/C" + c + ".java");
+                file.getParentFile().mkdirs();
+                Files.write(file.toPath(), source.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.xedox.javac;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IncrementalCompilerTest {
+    private static final List<String> OPTIONS = Arrays.asList("-8", "-proc:none");
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    private File sourceDir;
+    private File classesDir;
+    private File stateFile;
+
+    @Before
+    public void createDirs() throws IOException {
+        sourceDir = temp.newFolder("src");
+        classesDir = temp.newFolder("classes");
+        stateFile = new File(classesDir, "state.properties");
+    }
+
+    @Test
+    public void editedDependencyRecompilesDependents() throws IOException {
+        write("p/A.java", "package p; public class A { public int f() { return 1; } }");
+        write("p/B.java", "package p; public class B { long g() { return new A().f(); } }");
+        write("q/C.java", "package q; public class C {}");
+        IncrementalCompiler compiler = compile(true);
+        assertTrue(compiler.isFullBuild());
+
+        write("p/A.java", "package p; public class A { public int f() { return 2 + 1; } }");
+        assertEquals(Arrays.asList("A.java"), compiled(compile(true)));
+
+        write("p/A.java", "package p; public class A { public long f() { return 1; } }");
+        assertEquals(Arrays.asList("A.java", "B.java"), compiled(compile(true)));
+    }
+
+    @Test
+    public void removedSourceDeletesItsClassFiles() throws IOException {
+        write("p/A.java", "package p; public class A {}");
+        write("p/B.java", "package p; public class B { class Inner {} Runnable r = () -> {}; }");
+        compile(true);
+        assertTrue(new File(classesDir, "p/B$Inner.class").isFile());
+
+        Files.delete(new File(sourceDir, "p/B.java").toPath());
+        IncrementalCompiler compiler = compile(true);
+        assertFalse(compiler.isFullBuild());
+        assertEquals(Collections.emptyList(), compiled(compiler));
+        assertFalse(new File(classesDir, "p/B.class").exists());
+        assertFalse(new File(classesDir, "p/B$Inner.class").exists());
+        assertTrue(new File(classesDir, "p/A.class").isFile());
+        assertEquals(Arrays.asList("p/A"), IncrementalCompiler.readOutputTypes(stateFile));
+    }
+
+    @Test
+    public void failedCompileLeavesTheStateDirty() throws IOException {
+        String source = "package p; public class A { public int f() { return 1; } }";
+        File a = write("p/A.java", source);
+        write("p/B.java", "package p; public class B {}");
+        compile(true);
+
+        write("p/A.java", "package p; public class A { public int f() { return; } }");
+        compile(false);
+        CompilationState state = CompilationState.load(stateFile);
+        String path = a.getAbsoluteFile().toPath().normalize().toString();
+        assertTrue(state.sources.get(path).fingerprint.isEmpty());
+
+        // Back to the content of the last good build, which still has to be compiled again.
+        write("p/A.java", source);
+        assertEquals(Arrays.asList("A.java"), compiled(compile(true)));
+        assertTrue(new File(classesDir, "p/A.class").isFile());
+    }
+
+    @Test
+    public void recompilesCyclicDependentOfChangedConstant() throws Exception {
+        write(
+                "p/A.java",
+                "package p; public class A {"
+                        + " public static final int Y = 1;"
+                        + " public static int read() { return C.X; } }");
+        write("p/C.java", "package p; public class C { public static final int X = A.Y; }");
+        compile(true);
+        assertEquals(1, read());
+
+        write(
+                "p/A.java",
+                "package p; public class A {"
+                        + " public static final int Y = 2;"
+                        + " public static int read() { return C.X; } }");
+        IncrementalCompiler compiler = compile(true);
+        assertEquals(Arrays.asList("A.java", "C.java"), compiled(compiler));
+        assertEquals(3, compiler.getRounds());
+        assertEquals(2, read());
+    }
+
+    private IncrementalCompiler compile(boolean expected) throws IOException {
+        StringWriter errors = new StringWriter();
+        JavaCompiler javac =
+                new JavaCompiler(new PrintWriter(new StringWriter()), new PrintWriter(errors));
+        IncrementalCompiler compiler = new IncrementalCompiler(javac, classesDir, stateFile);
+        boolean success =
+                compiler.compile(Collections.singletonList(sourceDir.getPath()), OPTIONS);
+        assertEquals(errors.toString(), expected, success);
+        return compiler;
+    }
+
+    private static List<String> compiled(IncrementalCompiler compiler) {
+        TreeSet<String> names = new TreeSet<>();
+        for (String path : compiler.getCompiledSources()) {
+            names.add(new File(path).getName());
+        }
+        return Arrays.asList(names.toArray(new String[0]));
+    }
+
+    // A.read() from a fresh class loader over the output directory.
+    private int read() throws Exception {
+        try (URLClassLoader loader =
+                new URLClassLoader(new URL[] {classesDir.toURI().toURL()}, null)) {
+            return (Integer) loader.loadClass("p.A").getMethod("read").invoke(null);
+        }
+    }
+
+    // Moves the timestamp too, so an edit of the same length is not taken for the old file.
+    private File write(String path, String content) throws IOException {
+        File file = new File(sourceDir, path);
+        long previous = file.lastModified();
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        if (previous != 0) {
+            assertTrue(file.setLastModified(previous + 2000));
+        }
+        return file;
+    }
+}
@@ -0,0 +1,120 @@
+package org.xedox.javac;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class IncrementalParserTest {
+    private static final String PATH = "Sample.java";
+    private static final int EDITS = 20_000;
+    // Edits in a row before starting over from the original text. Longer runs erode the outline,
+    // which always takes a full parse, and make ECJ's error recovery slow.
+    private static final int EDITS_PER_ROUND = 3;
+    private static final String[] INSERTS = {
+        "", " ", "\n", ";", "{", "}", "(", ")", "=", "+", ",", ".", "x", "1", "int ", "return ",
+        "if (x) ", "new Object()", "else ", "for (;;) ", "->", "<", ">", "\"", "/*", "*/", "//", "'"
+    };
+
+    private static final String SOURCE =
+            "package p;\n"
+                    + "\n"
+                    + "import java.util.List;\n"
+                    + "\n"
+                    + "public class Sample {\n"
+                    + "    private int count;\n"
+                    + "    static { System.out.println(\"loaded\"); }\n"
+                    + "    { count = 1; }\n"
+                    + "\n"
+                    + "    public Sample(int count) {\n"
+                    + "        this.count = count;\n"
+                    + "    }\n"
+                    + "\n"
+                    + "    int sum(List<Integer> values) {\n"
+                    + "        int total = 0;\n"
+                    + "        for (int value : values) {\n"
+                    + "            if (value > 0) total += value; else total -= 1;\n"
+                    + "        }\n"
+                    + "        return total;\n"
+                    + "    }\n"
+                    + "\n"
+                    + "    String describe(Object o) {\n"
+                    + "        return switch (o.hashCode() % 3) {\n"
+                    + "            case 0 -> \"zero\";\n"
+                    + "            case 1 -> { yield \"one\"; }\n"
+                    + "            default -> String.valueOf(count);\n"
+                    + "        };\n"
+                    + "    }\n"
+                    + "\n"
+                    + "    abstract static class Shape {\n"
+                    + "        abstract double area();\n"
+                    + "        double twice() { return area() * 2; }\n"
+                    + "    }\n"
+                    + "\n"
+                    + "    Runnable task() {\n"
+                    + "        return () -> { count++; };\n"
+                    + "    }\n"
+                    + "}\n";
+
+    @Test
+    public void reparseMatchesFullParse() {
+        IncrementalParser incremental = new IncrementalParser("17");
+        IncrementalParser full = new IncrementalParser("17");
+        Random random = new Random(20_000);
+
+        int reparsed = 0;
+        IncrementalParser.Result result = incremental.parse(PATH, SOURCE);
+        for (int i = 0; i < EDITS; i++) {
+            if (i % EDITS_PER_ROUND == 0) result = incremental.parse(PATH, SOURCE);
+            String contents = result.contents;
+            int offset = random.nextInt(contents.length() + 1);
+            int length = Math.min(random.nextInt(4), contents.length() - offset);
+            String text = INSERTS[random.nextInt(INSERTS.length)];
+
+            result = incremental.reparse(result, offset, length, text);
+            IncrementalParser.Result expected = full.parse(PATH, result.contents);
+            assertFalse(expected.incremental);
+            if (result.incremental) reparsed++;
+            assertEquals(
+                    "edit " + i + ": " + offset + "+" + length + " -> '" + text + "'\n"
+                            + result.contents,
+                    describe(expected),
+                    describe(result));
+        }
+        assertTrue("reparsed " + reparsed, reparsed > EDITS / 4);
+    }
+
+    @Test
+    public void editOutsideBodiesTakesFullParse() {
+        IncrementalParser parser = new IncrementalParser("17");
+        IncrementalParser.Result result = parser.parse(PATH, SOURCE);
+        int field = SOURCE.indexOf("private int count;");
+
+        IncrementalParser.Result edited = parser.reparse(result, field, 0, "volatile ");
+        assertFalse(edited.incremental);
+
+        int body = SOURCE.indexOf("int total = 0;");
+        IncrementalParser.Result inBody = parser.reparse(edited, body + 9, 0, "+");
+        assertTrue(inBody.incremental);
+        assertTrue(inBody.hasErrors());
+        assertEquals(
+                describe(new IncrementalParser("17").parse(PATH, inBody.contents)),
+                describe(inBody));
+    }
+
+    private static List<String> describe(IncrementalParser.Result result) {
+        List<String> diagnostics = new ArrayList<>();
+        for (JavacDiagnostic d : result.getDiagnostics()) {
+            diagnostics.add(
+                    d.startPosition + "-" + d.endPosition + " " + d.problemId + " " + d + ":"
+                            + d.column);
+        }
+        Collections.sort(diagnostics);
+        return diagnostics;
+    }
+}
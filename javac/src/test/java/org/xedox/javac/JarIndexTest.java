@@ -0,0 +1,177 @@
+package org.xedox.javac;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JarIndexTest {
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    private File sourceDir;
+    private File classesDir;
+
+    @Before
+    public void writeSources() throws IOException {
+        sourceDir = temp.newFolder("src");
+        classesDir = temp.newFolder("classes");
+        write(sourceDir, "a/b/First.java", "package a.b; public class First { int x; }");
+        write(
+                sourceDir,
+                "a/b/Second.java",
+                "package a.b; public class Second { public String name() { return \"second\"; }"
+                        + " class Inner {} }");
+        write(sourceDir, "a/c/Third.java", "package a.c; public interface Third { void run(); }");
+        write(sourceDir, "Root.java", "public class Root {}");
+        compile();
+    }
+
+    private void compile() {
+        StringWriter errors = new StringWriter();
+        JavaCompiler compiler =
+                new JavaCompiler(new PrintWriter(new StringWriter()), new PrintWriter(errors));
+        boolean success =
+                compiler.compile(
+                        "-8", "-proc:none", "-d", classesDir.getPath(), sourceDir.getPath());
+        assertTrue(errors.toString(), success);
+    }
+
+    @Test
+    public void findsPackagesAndTypes() throws IOException {
+        File jar = jar("lib.jar", false);
+        JarIndex index = JarIndex.open(jar, new File(jar.getPath() + JarIndex.SUFFIX));
+
+        assertEquals(
+                Arrays.asList("Root", "a/b/First", "a/b/Second", "a/b/Second$Inner", "a/c/Third"),
+                index.getTypes());
+        assertTrue(index.hasPackage("a"));
+        assertFalse(index.hasTypes("a"));
+        assertTrue(index.hasTypes("a/b"));
+        assertTrue(index.hasType("a/b/Second$Inner"));
+        assertTrue(index.hasType("Root"));
+        assertFalse(index.hasType("a/b/Missing"));
+        assertFalse(index.hasPackage("a/d"));
+        assertNull(index.readClass("a/c/Missing"));
+    }
+
+    @Test
+    public void inflatesDeflatedAndStoredEntries() throws IOException {
+        for (boolean stored : new boolean[] {false, true}) {
+            File jar = jar(stored ? "stored.jar" : "deflated.jar", stored);
+            JarIndex index = JarIndex.open(jar, new File(jar.getPath() + JarIndex.SUFFIX));
+            for (String type : index.getTypes()) {
+                File expected = new File(classesDir, type + ".class");
+                assertArrayEquals(
+                        type, Files.readAllBytes(expected.toPath()), index.readClass(type));
+            }
+        }
+    }
+
+    @Test
+    public void reusesAndRebuildsIndexFile() throws IOException {
+        File jar = jar("lib.jar", false);
+        File indexFile = new File(jar.getPath() + JarIndex.SUFFIX);
+        String apiHash = JarIndex.open(jar, indexFile).getApiHash();
+        long built = indexFile.lastModified();
+
+        JarIndex reopened = JarIndex.open(jar, indexFile);
+        assertFalse(reopened.isStale());
+        assertEquals(built, indexFile.lastModified());
+        assertEquals(apiHash, reopened.getApiHash());
+
+        write(sourceDir, "a/b/First.java", "package a.b; public class First { public int y; }");
+        compile();
+        jar("lib.jar", false);
+        assertTrue(jar.setLastModified(built + 2000));
+        assertTrue(reopened.isStale());
+        JarIndex rebuilt = JarIndex.open(jar, indexFile);
+        assertFalse(rebuilt.isStale());
+        assertNotEquals(apiHash, rebuilt.getApiHash());
+
+        String[] leftovers = temp.getRoot().list((dir, name) -> name.endsWith(".tmp"));
+        assertEquals(0, leftovers.length);
+    }
+
+    @Test
+    public void rebuildsUnreadableIndexFile() throws IOException {
+        File jar = jar("lib.jar", false);
+        File indexFile = new File(jar.getPath() + JarIndex.SUFFIX);
+        List<String> types = JarIndex.open(jar, indexFile).getTypes();
+        byte[] good = Files.readAllBytes(indexFile.toPath());
+
+        byte[] otherVersion = good.clone();
+        otherVersion[7]++;
+        byte[][] broken = {
+            new byte[0],
+            Arrays.copyOf(good, 10),
+            new byte[64],
+            otherVersion,
+            Arrays.copyOf(good, good.length / 2),
+        };
+        for (byte[] content : broken) {
+            Files.write(indexFile.toPath(), content);
+            JarIndex index = JarIndex.open(jar, indexFile);
+            assertEquals(types, index.getTypes());
+            assertArrayEquals(good, Files.readAllBytes(indexFile.toPath()));
+        }
+    }
+
+    private File jar(String name, boolean stored) throws IOException {
+        File jar = new File(temp.getRoot(), name);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            addClasses(out, classesDir, "", stored);
+        }
+        return jar;
+    }
+
+    private static void addClasses(ZipOutputStream out, File dir, String prefix, boolean stored)
+            throws IOException {
+        File[] children = dir.listFiles();
+        Arrays.sort(children);
+        for (File child : children) {
+            String path = prefix + child.getName();
+            if (child.isDirectory()) {
+                addClasses(out, child, path + "/", stored);
+                continue;
+            }
+            byte[] bytes = Files.readAllBytes(child.toPath());
+            ZipEntry entry = new ZipEntry(path);
+            if (stored) {
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(bytes.length);
+                entry.setCompressedSize(bytes.length);
+                entry.setCrc(crc.getValue());
+            }
+            out.putNextEntry(entry);
+            out.write(bytes);
+            out.closeEntry();
+        }
+    }
+
+    private static void write(File dir, String path, String content) throws IOException {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,143 @@
+package org.xedox.javac;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SymbolIndexTest {
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    private File sourceDir;
+    private File indexFile;
+    private List<String> sourcePaths;
+
+    @Before
+    public void writeSources() throws IOException {
+        sourceDir = temp.newFolder("src");
+        indexFile = new File(temp.getRoot(), "symbols.idx");
+        // Not normalized, as a user may well configure it.
+        sourcePaths = Collections.singletonList(sourceDir.getPath() + "/./");
+        write(
+                "a/Shape.java",
+                "package a;\n"
+                        + "public interface Shape {\n"
+                        + "    double area();\n"
+                        + "}\n");
+        write(
+                "a/Circle.java",
+                "package a;\n"
+                        + "public class Circle implements Shape {\n"
+                        + "    private final double radius;\n"
+                        + "    public Circle(double radius) { this.radius = radius; }\n"
+                        + "    public double area() { return Math.PI * radius * radius; }\n"
+                        + "    enum Unit { CM, INCH }\n"
+                        + "}\n");
+    }
+
+    @Test
+    public void indexesDeclarations() throws IOException {
+        SymbolIndex index = new SymbolIndex(indexFile, "17");
+        assertEquals(2, index.update(sourcePaths));
+
+        assertEquals(
+                Arrays.asList(
+                        "class a.Circle (2)",
+                        "field a.Circle.radius (3)",
+                        "constructor a.Circle.Circle (4)",
+                        "method a.Circle.area (5)",
+                        "enum a.Circle.Unit (6)",
+                        "enum_constant a.Circle.Unit.CM (6)",
+                        "enum_constant a.Circle.Unit.INCH (6)"),
+                describe(index.getSymbols(new File(sourceDir, "a/Circle.java"))));
+        assertEquals(2, index.find("area").size());
+        assertEquals(
+                Arrays.asList("class a.Circle (2)", "constructor a.Circle.Circle (4)"),
+                describe(index.findByPrefix("Ci")));
+        assertTrue(index.find("missing").isEmpty());
+    }
+
+    @Test
+    public void reparsesOnlyChangedFiles() throws IOException {
+        SymbolIndex index = new SymbolIndex(indexFile, "17");
+        index.update(sourcePaths);
+        assertEquals(0, index.update(sourcePaths));
+
+        File shape = write("a/Shape.java", "package a;\ninterface Shape {\n  double size();\n}\n");
+        assertTrue(shape.setLastModified(shape.lastModified() + 2000));
+        assertEquals(1, index.update(sourcePaths));
+        assertEquals(1, index.find("area").size());
+        assertEquals(Arrays.asList("method a.Shape.size (3)"), describe(index.find("size")));
+
+        Files.delete(new File(sourceDir, "a/Circle.java").toPath());
+        assertEquals(0, index.update(sourcePaths));
+        assertEquals(1, index.getFileCount());
+        assertTrue(index.find("Circle").isEmpty());
+        assertTrue(index.find("area").isEmpty());
+    }
+
+    @Test
+    public void keepsTheIndexBetweenRuns() throws IOException {
+        SymbolIndex index = new SymbolIndex(indexFile, "17");
+        index.update(sourcePaths);
+        index.save();
+
+        SymbolIndex reloaded = new SymbolIndex(indexFile, "17");
+        assertEquals(2, reloaded.getFileCount());
+        assertEquals(0, reloaded.update(sourcePaths));
+        // Symbols of the same name may come back in another order.
+        List<String> symbols = describe(index.findByPrefix(""));
+        List<String> reloadedSymbols = describe(reloaded.findByPrefix(""));
+        Collections.sort(symbols);
+        Collections.sort(reloadedSymbols);
+        assertEquals(symbols, reloadedSymbols);
+
+        // Another source level parses differently, so it starts over.
+        assertEquals(0, new SymbolIndex(indexFile, "11").getFileCount());
+    }
+
+    @Test
+    public void indexesUnsavedBuffers() throws IOException {
+        SymbolIndex index = new SymbolIndex(indexFile, "17");
+        index.update(sourcePaths);
+        File shape = new File(sourceDir, "a/Shape.java");
+
+        index.update(shape, "package a;\ninterface Shape {\n  double perimeter();\n}\n");
+        assertEquals(
+                Arrays.asList("method a.Shape.perimeter (3)"), describe(index.find("perimeter")));
+        assertEquals(1, index.find("area").size());
+
+        assertTrue(index.update(shape));
+        assertTrue(index.find("perimeter").isEmpty());
+        assertFalse(index.update(shape));
+    }
+
+    private File write(String path, String content) throws IOException {
+        File file = new File(sourceDir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    // Symbol.toString() without the path, which differs between machines.
+    private static List<String> describe(List<SymbolIndex.Symbol> symbols) {
+        List<String> result = new ArrayList<>();
+        for (SymbolIndex.Symbol symbol : symbols) {
+            String text = symbol.toString();
+            result.add(text.substring(0, text.indexOf(" (")) + " (" + symbol.line + ")");
+        }
+        return result;
+    }
+}
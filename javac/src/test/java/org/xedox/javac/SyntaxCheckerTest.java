@@ -0,0 +1,127 @@
+package org.xedox.javac;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.jdt.core.compiler.IProblem;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SyntaxCheckerTest {
+    // Enough files for the checker to parse them in parallel.
+    private static final int FILES = PrefetchingParser.MIN_UNITS + 2;
+    private static final String[] BROKEN_BODIES = {
+        "int x = ;",
+        "if (x > 0 { x++; }",
+        "return x +;",
+        "String s = \"open;",
+        "for (int i = 0; i < x; i++ { }",
+        "x = (x + 1;",
+    };
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    private File sourceDir;
+
+    @Before
+    public void writeSources() throws IOException {
+        sourceDir = temp.newFolder("src");
+        for (int i = 0; i < FILES; i++) {
+            String body = i % 2 == 0 ? "x++;" : BROKEN_BODIES[i / 2 % BROKEN_BODIES.length];
+            write(
+                    "p/C" + i + ".java",
+                    "package p;\n"
+                            + "public class C" + i + " {\n"
+                            + "    int m(int x) {\n"
+                            + "        " + body + "\n"
+                            + "        return x;\n"
+                            + "    }\n"
+                            + (i == 3 ? "    void n() {\n" : "")
+                            + "}\n");
+        }
+    }
+
+    @Test
+    public void reportsTheSyntaxErrorsOfACompile() {
+        List<String> compiled = new ArrayList<>();
+        JavaCompiler compiler = newCompiler(compiled);
+        assertFalse(
+                compiler.compile(
+                        "-8",
+                        "-proc:none",
+                        "-d",
+                        temp.getRoot().getPath() + "/classes",
+                        sourceDir.getPath()));
+        List<String> expected = new ArrayList<>();
+        for (String diagnostic : compiled) {
+            if (diagnostic.startsWith("syntax ")) expected.add(diagnostic.substring(7));
+        }
+        Collections.sort(expected);
+        assertFalse(expected.isEmpty());
+
+        for (int workers : new int[] {1, 4, 0}) {
+            List<String> checked = new ArrayList<>();
+            JavaCompiler checker = newCompiler(checked);
+            checker.setWorkers(workers);
+            assertFalse(
+                    checker.checkSyntax(Collections.singletonList(sourceDir.getPath()), "1.8"));
+            List<String> actual = new ArrayList<>();
+            for (String diagnostic : checked) {
+                actual.add(diagnostic.substring(diagnostic.indexOf(' ') + 1));
+            }
+            Collections.sort(actual);
+            assertEquals(workers + " workers", expected, actual);
+        }
+    }
+
+    @Test
+    public void passesWhenThereAreNoSyntaxErrors() throws IOException {
+        // Only resolving finds this one.
+        write("p/Missing.java", "package p;\nclass Missing { Nowhere field; }\n");
+        for (int i = 1; i < FILES; i += 2) {
+            new File(sourceDir, "p/C" + i + ".java").delete();
+        }
+
+        StringWriter errors = new StringWriter();
+        JavaCompiler checker =
+                new JavaCompiler(new PrintWriter(new StringWriter()), new PrintWriter(errors));
+        assertTrue(
+                errors.toString(),
+                checker.checkSyntax(Collections.singletonList(sourceDir.getPath()), "1.8"));
+        assertEquals("", errors.toString());
+    }
+
+    // Each diagnostic as "syntax|other path:line:column: severity: message @start".
+    private static JavaCompiler newCompiler(List<String> diagnostics) {
+        PrintWriter ignored = new PrintWriter(new StringWriter());
+        JavaCompiler compiler = new JavaCompiler(ignored, ignored);
+        compiler.setDiagnosticListener(
+                diagnostic ->
+                        diagnostics.add(
+                                ((diagnostic.problemId & IProblem.Syntax) != 0
+                                                ? "syntax "
+                                                : "other ")
+                                        + diagnostic
+                                        + " @"
+                                        + diagnostic.startPosition));
+        return compiler;
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(sourceDir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}